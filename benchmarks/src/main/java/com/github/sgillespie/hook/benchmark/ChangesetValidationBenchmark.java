@@ -0,0 +1,223 @@
+package com.github.sgillespie.hook.benchmark;
+
+import com.atlassian.stash.commit.CommitService;
+import com.atlassian.stash.content.Change;
+import com.atlassian.stash.content.Changeset;
+import com.atlassian.stash.content.DetailedChangeset;
+import com.atlassian.stash.content.DetailedChangesetsRequest;
+import com.atlassian.stash.content.SimplePath;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryMetadataService;
+import com.atlassian.stash.scm.ScmService;
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.PageImpl;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+import com.github.sgillespie.hook.ChangesetResultCache;
+import com.github.sgillespie.hook.GitChangeSource;
+import com.github.sgillespie.hook.GroupMembershipCache;
+import com.github.sgillespie.hook.MergeBaseResolver;
+import com.github.sgillespie.hook.MergeCheckCache;
+import com.github.sgillespie.hook.ProtectPathsChangesetService;
+import com.github.sgillespie.hook.ProtectPathsChangesetServiceImpl;
+import com.github.sgillespie.hook.ProtectPathsMetrics;
+import com.github.sgillespie.hook.SettingsFactoryServiceImpl;
+import com.github.sgillespie.hook.ValidationExecutor;
+import com.github.sgillespie.hook.ValidationMode;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures validating a synthetic push against an in-memory CommitService. The caches are disabled, so every
+ * invocation fetches and matches every changeset of the push.
+ *
+ * Each changeset changes {@value #CHANGES_PER_CHANGESET} paths, drawn from a repository of {@value #REPOSITORY_PATHS}
+ * paths. None of them are protected, so the whole push is scanned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangesetValidationBenchmark {
+    public static final int CHANGES_PER_CHANGESET = 10;
+    public static final int REPOSITORY_PATHS = 10000;
+    public static final String PATH_PATTERNS = "protected/.* config/production\\.properties build/.*\\.gradle";
+
+    @Param({"1", "100", "10000", "100000"})
+    public int changesets;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"COMMITS", "NET_DIFF"})
+    public ValidationMode mode;
+
+    private ProtectPathsChangesetService changesetService;
+    private Repository repository;
+    private Settings settings;
+
+    @Setup
+    public void setUp() {
+        repository = Stubs.stub(Repository.class, ImmutableMap.of("getId", 1, "getSlug", "repository"));
+        settings = Stubs.stub(Settings.class, new InvocationHandler() {
+            private final Map<String, String> values = ImmutableMap.of(
+                    SettingsFactoryServiceImpl.KEY_PATH_PATTERNS, PATH_PATTERNS,
+                    SettingsFactoryServiceImpl.KEY_VALIDATION_MODE, mode.name());
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String value = values.get(args[0]);
+                return value == null && args.length > 1 ? args[1] : value;
+            }
+        });
+
+        ApplicationPropertiesService applicationPropertiesService = Stubs.stub(ApplicationPropertiesService.class,
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (ValidationExecutor.PROPERTY_THREADS.equals(args[0])) return threads;
+                        if (ChangesetResultCache.PROPERTY_SIZE.equals(args[0])) return 0;
+                        if (MergeCheckCache.PROPERTY_SIZE.equals(args[0])) return 0;
+                        return args.length > 1 ? args[1] : null;
+                    }
+                });
+        SecurityService securityService = Stubs.stub(SecurityService.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                // Escalated operations run as is
+                return Stubs.stub(method.getReturnType(), new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return ((Operation<?, ?>) args[0]).perform();
+                    }
+                });
+            }
+        });
+        StashUser user = Stubs.stub(StashUser.class, ImmutableMap.of("getName", "user"));
+
+        changesetService = new ProtectPathsChangesetServiceImpl(
+                new SyntheticCommitService(changesets).create(),
+                Stubs.stub(RepositoryMetadataService.class),
+                Stubs.stub(PermissionService.class),
+                Stubs.stub(StashAuthenticationContext.class, ImmutableMap.of("getCurrentUser", user)),
+                new SettingsFactoryServiceImpl(),
+                new ChangesetResultCache(applicationPropertiesService),
+                new MergeCheckCache(applicationPropertiesService),
+                new GroupMembershipCache(Stubs.stub(UserService.class), applicationPropertiesService),
+                new ValidationExecutor(applicationPropertiesService, securityService),
+                new MergeBaseResolver(Stubs.stub(ScmService.class)),
+                new GitChangeSource(Stubs.stub(ScmService.class)),
+                applicationPropertiesService,
+                new ProtectPathsMetrics());
+    }
+
+    @Benchmark
+    public List<String> validateChangesets() {
+        return changesetService.validateChangesets(repository, settings, "refs/heads/master", "FROM", "TO");
+    }
+
+    /**
+     * Serves a linear history of synthetic changesets, one page at a time. The diff of the whole history changes
+     * each path touched by any changeset once.
+     */
+    private static class SyntheticCommitService {
+        private final List<Changeset> changesets;
+        private final Map<String, DetailedChangeset> detailedChangesets;
+        private final List<Change> diff;
+
+        private SyntheticCommitService(int count) {
+            List<Change> repositoryChanges = new ArrayList<>(REPOSITORY_PATHS);
+            for (int path = 0; path < REPOSITORY_PATHS; path++) {
+                repositoryChanges.add(Stubs.stub(Change.class, ImmutableMap.of("getPath", new SimplePath(
+                        String.format("src/module%d/package%d/File%d.java", path % 10, path % 100, path)))));
+            }
+
+            List<Changeset> changesets = new ArrayList<>(count);
+            boolean[] touched = new boolean[REPOSITORY_PATHS];
+            ImmutableMap.Builder<String, DetailedChangeset> detailedChangesets = ImmutableMap.builder();
+            PageRequest changesPageRequest = new PageRequestImpl(0, CHANGES_PER_CHANGESET);
+
+            for (int i = 0; i < count; i++) {
+                String id = String.format("%040x", i);
+                Changeset changeset = Stubs.stub(Changeset.class, ImmutableMap.of("getId", id));
+
+                List<Change> changes = new ArrayList<>(CHANGES_PER_CHANGESET);
+                for (int j = 0; j < CHANGES_PER_CHANGESET; j++) {
+                    long change = (long) i * CHANGES_PER_CHANGESET + j;
+                    int path = (int) (change * 7919 % REPOSITORY_PATHS);
+                    changes.add(repositoryChanges.get(path));
+                    touched[path] = true;
+                }
+
+                changesets.add(changeset);
+                detailedChangesets.put(id, Stubs.stub(DetailedChangeset.class, ImmutableMap.of(
+                        "getToChangeset", changeset,
+                        "getChanges", new PageImpl<>(changesPageRequest, changes.size(), changes, true))));
+            }
+
+            this.changesets = Collections.unmodifiableList(changesets);
+            this.detailedChangesets = detailedChangesets.build();
+            this.diff = new ArrayList<>();
+            for (int path = 0; path < REPOSITORY_PATHS; path++) {
+                if (touched[path]) diff.add(repositoryChanges.get(path));
+            }
+        }
+
+        private CommitService create() {
+            return Stubs.stub(CommitService.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    PageRequest pageRequest = (PageRequest) args[1];
+
+                    switch (method.getName()) {
+                        case "getChangesetsBetween":
+                            return page(pageRequest, changesets);
+                        case "getDetailedChangesets":
+                            List<DetailedChangeset> values = new ArrayList<>();
+                            for (String id : ((DetailedChangesetsRequest) args[0]).getChangesetIds()) {
+                                values.add(detailedChangesets.get(id));
+                            }
+                            return page(pageRequest, values);
+                        case "getChanges":
+                            return page(pageRequest, diff);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+            });
+        }
+
+        private static <T> PageImpl<T> page(PageRequest pageRequest, List<T> values) {
+            int start = Math.min(pageRequest.getStart(), values.size());
+            int end = Math.min(start + pageRequest.getLimit(), values.size());
+            return new PageImpl<>(pageRequest, end - start, values.subList(start, end), end == values.size());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.sgillespie.hook.benchmark;
+
+import com.github.sgillespie.hook.PathPatternMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures matching a batch of changed paths against the protected path patterns.
+ *
+ * Each invocation matches {@value #PATHS} paths, roughly one in ten of which is protected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathPatternMatcherBenchmark {
+    public static final int PATHS = 1000;
+
+    public enum PatternStyle {
+        /** Exact paths, e.g. dir0/dir1/file3.txt */
+        LITERAL,
+        /** Directory prefixes, e.g. dir0/dir1/.* */
+        PREFIX,
+        /** Regular expressions needing backtracking, e.g. dir0/(?:[^/]+/)*file3\.(txt|xml) */
+        REGEX,
+        /** The equivalent globs, e.g. glob:dir0/**&#47;file3.[tx][xm][tl] */
+        GLOB
+    }
+
+    @Param({"1", "10", "100", "1000"})
+    public int patternCount;
+
+    @Param({"2", "8", "16"})
+    public int depth;
+
+    @Param({"LITERAL", "PREFIX", "REGEX", "GLOB"})
+    public PatternStyle style;
+
+    private PathPatternMatcher matcher;
+    private String[] paths;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(patternCount * 31 + depth);
+
+        List<String> patterns = new ArrayList<>(patternCount);
+        for (int i = 0; i < patternCount; i++) {
+            patterns.add(pattern(i));
+        }
+        matcher = new PathPatternMatcher(patterns);
+
+        paths = new String[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            // Protected paths match one of the patterns, the others live in an unprotected tree
+            int pattern = random.nextInt(patternCount);
+            paths[i] = random.nextInt(10) == 0
+                    ? path("protected" + pattern, pattern)
+                    : path("src" + random.nextInt(100), random.nextInt(1000));
+        }
+    }
+
+    @Benchmark
+    public void match(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(matcher.match(path));
+        }
+    }
+
+    private String pattern(int i) {
+        String directory = directory("protected" + i);
+        switch (style) {
+            case LITERAL:
+                return directory + "file" + i + "\\.txt";
+            case PREFIX:
+                return directory + ".*";
+            case GLOB:
+                return "glob:protected" + i + "/**/file" + i + ".[tx][xm][tl]";
+            default:
+                return "protected" + i + "/(?:[^/]+/)*file" + i + "\\.(txt|xml)";
+        }
+    }
+
+    private String path(String root, int file) {
+        return directory(root) + "file" + file + ".txt";
+    }
+
+    private String directory(String root) {
+        StringBuilder directory = new StringBuilder(root).append('/');
+        for (int i = 1; i < depth - 1; i++) {
+            directory.append("dir").append(i).append('/');
+        }
+        return directory.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.sgillespie.hook.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates in-memory stubs of Stash services, so the benchmarks measure the hook rather than a mocking framework.
+ */
+public final class Stubs {
+    private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<>();
+
+    static {
+        PRIMITIVE_DEFAULTS.put(boolean.class, false);
+        PRIMITIVE_DEFAULTS.put(int.class, 0);
+        PRIMITIVE_DEFAULTS.put(long.class, 0L);
+    }
+
+    private Stubs() {
+    }
+
+    /**
+     * Returns a stub answering each method with the value of the same name, or the default value of its return type
+     *
+     * @param type the stubbed interface
+     * @param values the values returned by each method, by method name
+     */
+    public static <T> T stub(Class<T> type, final Map<String, ?> values) {
+        return stub(type, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return values.get(method.getName());
+            }
+        });
+    }
+
+    public static <T> T stub(Class<T> type) {
+        return stub(type, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Returns a stub delegating to the specified handler. Null results of primitive methods are replaced by the
+     * default value of the primitive type.
+     */
+    public static <T> T stub(Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            switch (method.getName()) {
+                                case "equals":
+                                    return proxy == args[0];
+                                case "hashCode":
+                                    return System.identityHashCode(proxy);
+                                default:
+                                    return method.getDeclaringClass().getSimpleName() + " stub";
+                            }
+                        }
+
+                        Object value = handler.invoke(proxy, method, args);
+                        return value == null ? PRIMITIVE_DEFAULTS.get(method.getReturnType()) : value;
+                    }
+                }));
+    }
+}
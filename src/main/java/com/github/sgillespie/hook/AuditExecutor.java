@@ -0,0 +1,103 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.EscalatedSecurityContext;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.UncheckedOperation;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs audits of pushes on a single background thread owned by the plugin, so audits never delay a push. Pushes wait
+ * in a bounded queue; once it is full, further audits are dropped and counted rather than queued. The idle thread
+ * times out, so no thread is held between pushes. Queued audits are dropped when the plugin is disabled.
+ *
+ * The size of the queue is configured with the {@value #PROPERTY_QUEUE_SIZE} property in stash-config.properties.
+ */
+public class AuditExecutor implements DisposableBean {
+    public static final String PROPERTY_QUEUE_SIZE = "plugin.protect-paths.audit-queue.size";
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+    public static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final Logger log = LoggerFactory.getLogger(AuditExecutor.class);
+
+    private final SecurityService securityService;
+    private final ProtectPathsMetrics metrics;
+    private final ThreadPoolExecutor executor;
+
+    public AuditExecutor(ApplicationPropertiesService applicationPropertiesService, SecurityService securityService,
+                         ProtectPathsMetrics metrics) {
+        this.securityService = securityService;
+        this.metrics = metrics;
+
+        int queueSize = applicationPropertiesService.getPluginProperty(PROPERTY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+        // Without a queue, an audit is only accepted when the worker is idle
+        BlockingQueue<Runnable> queue = queueSize > 0
+                ? new ArrayBlockingQueue<Runnable>(queueSize)
+                : new SynchronousQueue<Runnable>();
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("protect-paths-audit-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues an audit, unless the queue is full
+     *
+     * @param user the user the audit runs as, normally the pushing user
+     * @param task the audit
+     * @return true if the audit was queued, or false if it was dropped
+     */
+    public boolean submit(final StashUser user, final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // The worker thread doesn't inherit the pushing user's authentication
+                    EscalatedSecurityContext securityContext = user == null
+                            ? securityService.withPermission(Permission.REPO_READ, "Protect paths audit")
+                            : securityService.impersonating(user, "Protect paths audit");
+                    securityContext.call(new UncheckedOperation<Void>() {
+                        @Override
+                        public Void perform() {
+                            task.run();
+                            return null;
+                        }
+                    });
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.recordAuditDrop();
+            log.warn(executor.isShutdown()
+                    ? "Protect paths audits are shut down; audit dropped"
+                    : "Protect paths audit queue is full; audit dropped");
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of audits waiting to run
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Shuts the worker down, interrupting the running audit
+     */
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
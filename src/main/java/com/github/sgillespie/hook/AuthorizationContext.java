@@ -0,0 +1,39 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.StashUser;
+
+/**
+ * Decides whether the user of a push or merge check is excluded from the hook. The cheap in-memory checks run before
+ * the repository permission query.
+ */
+public class AuthorizationContext {
+    private final PermissionService permissionService;
+    private final GroupMembershipCache groupMembershipCache;
+    private final ProtectPathsSettings settings;
+    private final Repository repository;
+    private final StashUser user;
+
+    public AuthorizationContext(PermissionService permissionService,
+                                GroupMembershipCache groupMembershipCache,
+                                ProtectPathsSettings settings,
+                                Repository repository,
+                                StashUser user) {
+        this.permissionService = permissionService;
+        this.groupMembershipCache = groupMembershipCache;
+        this.settings = settings;
+        this.repository = repository;
+        this.user = user;
+    }
+
+    /**
+     * Returns true if the user is an excluded user, a member of an excluded group or an administrator
+     */
+    public boolean isExcluded() {
+        return settings.isExcludedUser(user.getName())
+                || groupMembershipCache.isUserInAnyGroup(user, settings.getExcludedGroups())
+                || permissionService.hasRepositoryPermission(repository, Permission.REPO_ADMIN);
+    }
+}
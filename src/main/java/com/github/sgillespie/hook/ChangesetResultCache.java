@@ -0,0 +1,89 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the protected paths changed by each changeset. Whether a changeset changes protected paths
+ * depends only on the changeset and the path patterns, so the result is keyed by repository, changeset id and the
+ * fingerprint of the path patterns. Entries of patterns that are no longer used are evicted as the least recently used,
+ * so hooks of the same repository with different patterns share the cache without invalidating each other.
+ *
+ * The size of the cache is configured with the {@value #PROPERTY_SIZE} property in stash-config.properties.
+ */
+public class ChangesetResultCache {
+    public static final String PROPERTY_SIZE = "plugin.protect-paths.changeset-cache.size";
+    public static final int DEFAULT_SIZE = 10000;
+
+    private final Cache<Key, Map<String, List<String>>> cache;
+
+    public ChangesetResultCache(ApplicationPropertiesService applicationPropertiesService) {
+        int size = applicationPropertiesService.getPluginProperty(PROPERTY_SIZE, DEFAULT_SIZE);
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(size, 0))
+                .build();
+    }
+
+    /**
+     * Returns the cached matches of a changeset
+     *
+     * @param repository the changeset's repository
+     * @param pathMatcher the path patterns the changeset was matched against
+     * @param changesetId the changeset id
+     * @return the changed paths matching protected path patterns, or null if the changeset isn't cached
+     */
+    public Map<String, List<String>> get(Repository repository, PathPatternMatcher pathMatcher, String changesetId) {
+        return cache.getIfPresent(new Key(repository, pathMatcher, changesetId));
+    }
+
+    /**
+     * Caches the matches of a changeset
+     *
+     * @param repository the changeset's repository
+     * @param pathMatcher the path patterns the changeset was matched against
+     * @param changesetId the changeset id
+     * @param matches the changed paths matching protected path patterns, mapped to the patterns they match
+     */
+    public void put(Repository repository, PathPatternMatcher pathMatcher, String changesetId,
+                    Map<String, List<String>> matches) {
+        cache.put(new Key(repository, pathMatcher, changesetId), ImmutableMap.copyOf(matches));
+    }
+
+    private static class Key {
+        private final int repositoryId;
+        private final String fingerprint;
+        private final String changesetId;
+
+        private Key(Repository repository, PathPatternMatcher pathMatcher, String changesetId) {
+            this.repositoryId = repository.getId();
+            this.fingerprint = pathMatcher.getFingerprint();
+            this.changesetId = changesetId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return repositoryId == key.repositoryId
+                    && fingerprint.equals(key.fingerprint)
+                    && changesetId.equals(key.changesetId);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = repositoryId;
+            result = 31 * result + fingerprint.hashCode();
+            result = 31 * result + changesetId.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.scm.ScmCommandBuilder;
+import com.atlassian.stash.scm.ScmService;
+
+import java.util.Collection;
+
+/**
+ * Lists the changed paths of new changesets with a single git log command, as an alternative to fetching detailed
+ * changesets from the commit service. Used for very large pushes, where building a changeset object for every commit
+ * is expensive.
+ */
+public class GitChangeSource {
+    private final ScmService scmService;
+
+    public GitChangeSource(ScmService scmService) {
+        this.scmService = scmService;
+    }
+
+    /**
+     * Streams the changed paths of the changesets reachable from toHash, but not from any of the excluded changesets
+     *
+     * @param repository the repository
+     * @param excludes the changesets whose history is excluded
+     * @param toHash the newest changeset
+     * @param paths if not null, only changesets changing these paths are listed
+     * @param callback receives the changesets and their changed paths
+     */
+    public void scan(Repository repository, Collection<String> excludes, String toHash, Collection<String> paths,
+                     GitChangesOutputHandler.Callback callback) {
+        ScmCommandBuilder<?> builder = scmService.createBuilder(repository).command("log");
+        for (String argument : GitChangesOutputHandler.arguments(paths)) {
+            builder.argument(argument);
+        }
+        // The excludes can be the tips of every branch, too many for the command line
+        builder.inputHandler(new GitRevisionsInputHandler(toHash, excludes));
+
+        GitChangesOutputHandler handler = new GitChangesOutputHandler(callback);
+        try {
+            builder.build(handler).call();
+        } catch (RuntimeException e) {
+            // Canceling the command kills git, which fails the command
+            if (!handler.isCanceled()) throw e;
+        }
+    }
+}
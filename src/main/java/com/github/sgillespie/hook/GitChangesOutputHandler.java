@@ -0,0 +1,147 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.scm.CommandOutputHandler;
+import com.atlassian.utils.process.ProcessException;
+import com.atlassian.utils.process.Watchdog;
+import com.google.common.base.Charsets;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Streams the changed paths of a range of changesets from the output of a single git log command, without building
+ * a changeset for each commit. Paths are passed to a {@link Callback} as soon as they are read, so memory use doesn't
+ * depend on the size of the push.
+ *
+ * The command lists the same paths as the detailed changesets of {@link com.atlassian.stash.commit.CommitService}:
+ * renames are detected and reported by their new path. git log doesn't list the paths of merges, and with -m it omits
+ * a merge's diff against any parent it doesn't differ from, so merges are reported without paths and have to be
+ * compared to their first parent separately.
+ */
+public class GitChangesOutputHandler implements CommandOutputHandler<Void> {
+    // Each commit starts with \1, its id and its parent ids; the ids and every path are terminated by \0
+    private static final String COMMIT_MARKER = "\u0001";
+
+    private final Callback callback;
+    private Watchdog watchdog;
+    private boolean canceled;
+
+    public GitChangesOutputHandler(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Returns the git log arguments listing the changed paths of a range of changesets. The revisions of the range
+     * are read from the command's input, see {@link GitRevisionsInputHandler}.
+     *
+     * @param paths if not null, only changesets changing these paths are listed
+     */
+    public static List<String> arguments(Collection<String> paths) {
+        List<String> arguments = new ArrayList<>(Arrays.asList("--root", "-M", "--name-only", "-z",
+                "--format=%x01%H %P", "--stdin"));
+        arguments.add("--");
+        if (paths != null) arguments.addAll(paths);
+        return arguments;
+    }
+
+    @Override
+    public void process(InputStream output) throws ProcessException {
+        try {
+            read(new BufferedInputStream(output));
+        } catch (IOException e) {
+            throw new ProcessException(e);
+        }
+    }
+
+    @Override
+    public void complete() {
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    @Override
+    public Void getOutput() {
+        return null;
+    }
+
+    /**
+     * Returns true if the callback stopped reading before the end of the output
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    private void read(InputStream input) throws IOException {
+        byte[] buffer = new byte[256];
+        boolean skipping = true;
+
+        while (true) {
+            // Read the next \0 terminated token
+            int length = 0;
+            int b;
+            while ((b = input.read()) > 0) {
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[length++] = (byte) b;
+            }
+            if (b < 0 && length == 0) return;
+
+            if (callback.isStopped()) {
+                cancel();
+                return;
+            }
+
+            // The list of paths is separated from the commit by a newline
+            int start = 0;
+            while (start < length && buffer[start] == '\n') start++;
+            if (start == length) continue;
+
+            String token = new String(buffer, start, length - start, Charsets.UTF_8);
+            if (token.startsWith(COMMIT_MARKER)) {
+                List<String> ids = Arrays.asList(StringUtils.split(token.substring(COMMIT_MARKER.length()), ' '));
+                skipping = !callback.startChangeset(ids.get(0), ids.subList(1, ids.size()));
+            } else if (!skipping) {
+                callback.change(token);
+            }
+        }
+    }
+
+    private void cancel() {
+        canceled = true;
+        if (watchdog != null) watchdog.cancel();
+    }
+
+    /**
+     * Receives the changesets and changed paths read from git
+     */
+    public interface Callback {
+        /**
+         * Called before the changed paths of a changeset. Merges, with more than one parent, have no changed paths.
+         *
+         * @param changesetId the changeset id
+         * @param parentIds the ids of the changeset's parents, the first parent first
+         * @return false to skip the changed paths of the changeset
+         */
+        boolean startChangeset(String changesetId, List<String> parentIds);
+
+        /**
+         * Called for each changed path of the current changeset
+         *
+         * @param path the changed path
+         */
+        void change(String path);
+
+        /**
+         * Returns true to stop reading, and cancel the command
+         */
+        boolean isStopped();
+    }
+}
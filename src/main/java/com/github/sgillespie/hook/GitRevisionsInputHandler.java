@@ -0,0 +1,55 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.scm.CommandInputHandler;
+import com.atlassian.utils.process.Watchdog;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+/**
+ * Writes the revisions of a git log --stdin command to its input: the newest changeset, followed by each excluded
+ * changeset prefixed with ^. A created branch excludes the tip of every other branch, so on repositories with many
+ * branches the revisions wouldn't fit on the command line.
+ */
+public class GitRevisionsInputHandler implements CommandInputHandler {
+    private final String toHash;
+    private final Collection<String> excludes;
+
+    /**
+     * @param toHash the newest changeset
+     * @param excludes the changesets whose history is excluded
+     */
+    public GitRevisionsInputHandler(String toHash, Collection<String> excludes) {
+        this.toHash = toHash;
+        this.excludes = excludes;
+    }
+
+    @Override
+    public void process(OutputStream input) {
+        try (Writer writer = new OutputStreamWriter(input, Charsets.UTF_8)) {
+            writer.write(toHash);
+            writer.write('\n');
+            for (String exclude : excludes) {
+                writer.write('^');
+                writer.write(exclude);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            // Without every revision, git would list the wrong changesets
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void complete() {
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+    }
+}
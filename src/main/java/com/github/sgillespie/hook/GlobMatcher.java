@@ -0,0 +1,284 @@
+package com.github.sgillespie.hook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches paths against an Ant-style glob: {@code *} matches any characters within a path component, {@code **}
+ * matches any characters across components, {@code ?} matches a single character other than /, and {@code [...]}
+ * matches a character class ({@code [!...]} or {@code [^...]} to negate). A backslash escapes the next character.
+ *
+ * The glob is compiled into a nondeterministic automaton whose states are tracked as a bit set, so matching never
+ * backtracks: it takes time proportional to the length of the path, and allocates nothing for globs of up to 63
+ * tokens.
+ */
+public class GlobMatcher {
+    private static final int LITERAL = 0;
+    private static final int ANY_CHAR = 1;
+    private static final int CHAR_CLASS = 2;
+    // Consumes the directories matched by **/, up to and including the last /
+    private static final int DIRECTORIES = 3;
+    // Token types from here on also match the empty string
+    private static final int STAR = 4;
+    private static final int DOUBLE_STAR = 5;
+    // Enters DIRECTORIES, or skips it when **/ matches no directories
+    private static final int OPTIONAL_DIRECTORIES = 6;
+
+    private final String glob;
+    private final int[] types;
+    private final char[] literals;
+    private final char[][] classRanges;
+    private final boolean[] negated;
+    private final long initialStates;
+
+    /**
+     * @param glob the glob to compile
+     * @throws IllegalArgumentException if the glob is malformed
+     */
+    public GlobMatcher(String glob) {
+        this.glob = glob;
+
+        List<Token> tokens = tokenize(glob);
+        int size = tokens.size();
+        this.types = new int[size];
+        this.literals = new char[size];
+        this.classRanges = new char[size][];
+        this.negated = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Token token = tokens.get(i);
+            types[i] = token.type;
+            literals[i] = token.literal;
+            classRanges[i] = token.ranges;
+            negated[i] = token.negated;
+        }
+
+        this.initialStates = size < Long.SIZE ? closure(1L) : 0;
+    }
+
+    public String getGlob() {
+        return glob;
+    }
+
+    /**
+     * Returns true if the whole path matches the glob
+     *
+     * @param path the path to match
+     */
+    public boolean matches(String path) {
+        if (types.length >= Long.SIZE) return matchesLong(path);
+
+        // Bit i is set when the first i tokens match the path read so far
+        long states = initialStates;
+        for (int i = 0; i < path.length() && states != 0; i++) {
+            char c = path.charAt(i);
+            long next = 0;
+
+            for (long remaining = states; remaining != 0; remaining &= remaining - 1) {
+                int state = Long.numberOfTrailingZeros(remaining);
+                if (state == types.length) continue;
+
+                switch (types[state]) {
+                    case STAR:
+                        if (c != '/') next |= 1L << state;
+                        break;
+                    case DOUBLE_STAR:
+                        next |= 1L << state;
+                        break;
+                    case DIRECTORIES:
+                        next |= 1L << state;
+                        if (c == '/') next |= 1L << (state + 1);
+                        break;
+                    case OPTIONAL_DIRECTORIES:
+                        break;
+                    default:
+                        if (accepts(state, c)) next |= 1L << (state + 1);
+                }
+            }
+
+            states = closure(next);
+        }
+
+        return (states & (1L << types.length)) != 0;
+    }
+
+    /**
+     * Matches globs with too many tokens for a single long, tracking the states in an array
+     */
+    private boolean matchesLong(String path) {
+        int words = types.length / Long.SIZE + 1;
+        long[] states = new long[words];
+        long[] next = new long[words];
+        states[0] = 1L;
+        closure(states);
+
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            Arrays.fill(next, 0);
+
+            for (int state = 0; state < types.length; state++) {
+                if ((states[state / Long.SIZE] & (1L << state)) == 0) continue;
+
+                switch (types[state]) {
+                    case STAR:
+                        if (c != '/') set(next, state);
+                        break;
+                    case DOUBLE_STAR:
+                        set(next, state);
+                        break;
+                    case DIRECTORIES:
+                        set(next, state);
+                        if (c == '/') set(next, state + 1);
+                        break;
+                    case OPTIONAL_DIRECTORIES:
+                        break;
+                    default:
+                        if (accepts(state, c)) set(next, state + 1);
+                }
+            }
+
+            long[] swap = states;
+            states = next;
+            next = swap;
+            closure(states);
+        }
+
+        return (states[types.length / Long.SIZE] & (1L << types.length)) != 0;
+    }
+
+    private boolean accepts(int state, char c) {
+        switch (types[state]) {
+            case LITERAL:
+                return c == literals[state];
+            case ANY_CHAR:
+                return c != '/';
+            default:
+                if (c == '/') return false;
+
+                char[] ranges = classRanges[state];
+                boolean member = false;
+                for (int i = 0; i < ranges.length && !member; i += 2) {
+                    member = c >= ranges[i] && c <= ranges[i + 1];
+                }
+                return member != negated[state];
+        }
+    }
+
+    /**
+     * Adds the states reachable without consuming a character: wildcards also match the empty string
+     */
+    private long closure(long states) {
+        for (int state = 0; state < types.length; state++) {
+            if ((states & (1L << state)) == 0 || types[state] < STAR) continue;
+
+            states |= 1L << (state + 1);
+            if (types[state] == OPTIONAL_DIRECTORIES) states |= 1L << (state + 2);
+        }
+        return states;
+    }
+
+    private void closure(long[] states) {
+        for (int state = 0; state < types.length; state++) {
+            if ((states[state / Long.SIZE] & (1L << state)) == 0 || types[state] < STAR) continue;
+
+            set(states, state + 1);
+            if (types[state] == OPTIONAL_DIRECTORIES) set(states, state + 2);
+        }
+    }
+
+    private static void set(long[] states, int state) {
+        states[state / Long.SIZE] |= 1L << state;
+    }
+
+    private static List<Token> tokenize(String glob) {
+        List<Token> tokens = new ArrayList<>(glob.length());
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            // **/ matches any number of directories, including none
+                            i++;
+                            tokens.add(new Token(OPTIONAL_DIRECTORIES));
+                            tokens.add(new Token(DIRECTORIES));
+                        } else {
+                            tokens.add(new Token(DOUBLE_STAR));
+                        }
+                    } else {
+                        tokens.add(new Token(STAR));
+                    }
+                    break;
+                case '?':
+                    tokens.add(new Token(ANY_CHAR));
+                    break;
+                case '[':
+                    i = addCharClass(tokens, glob, i);
+                    break;
+                case '\\':
+                    if (++i == glob.length()) throw new IllegalArgumentException("Trailing escape in " + glob);
+                    tokens.add(Token.literal(glob.charAt(i)));
+                    break;
+                default:
+                    tokens.add(Token.literal(c));
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Adds the character class starting at the specified index
+     *
+     * @return the index of the closing bracket
+     */
+    private static int addCharClass(List<Token> tokens, String glob, int start) {
+        Token token = new Token(CHAR_CLASS);
+        int i = start + 1;
+        if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+            token.negated = true;
+            i++;
+        }
+
+        StringBuilder ranges = new StringBuilder();
+        for (int first = i; i < glob.length() && (glob.charAt(i) != ']' || i == first); i++) {
+            char from = glob.charAt(i);
+            if (from == '\\' && i + 1 < glob.length()) from = glob.charAt(++i);
+
+            char to = from;
+            if (i + 2 < glob.length() && glob.charAt(i + 1) == '-' && glob.charAt(i + 2) != ']') {
+                to = glob.charAt(i + 2);
+                i += 2;
+                if (to == '\\' && i + 1 < glob.length()) to = glob.charAt(++i);
+                if (to < from) throw new IllegalArgumentException("Invalid character range in " + glob);
+            }
+            ranges.append(from).append(to);
+        }
+
+        if (i == glob.length()) throw new IllegalArgumentException("Unclosed character class in " + glob);
+
+        token.ranges = ranges.toString().toCharArray();
+        tokens.add(token);
+        return i;
+    }
+
+    private static class Token {
+        private final int type;
+        private char literal;
+        private char[] ranges;
+        private boolean negated;
+
+        private Token(int type) {
+            this.type = type;
+        }
+
+        private static Token literal(char c) {
+            Token token = new Token(LITERAL);
+            token.literal = c;
+            return token;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches group membership lookups, so users pushing repeatedly don't query the user directory on every push.
+ * Answers expire after a fixed time, so membership changes take effect without restarting Stash.
+ *
+ * The time to live, in seconds, is configured with the {@value #PROPERTY_TTL} property in stash-config.properties.
+ */
+public class GroupMembershipCache {
+    public static final String PROPERTY_TTL = "plugin.protect-paths.group-cache.ttl";
+    public static final int DEFAULT_TTL = 300;
+    public static final int MAXIMUM_SIZE = 10000;
+
+    private final UserService userService;
+    private final Cache<Key, Boolean> cache;
+
+    public GroupMembershipCache(UserService userService,
+                                ApplicationPropertiesService applicationPropertiesService) {
+        this.userService = userService;
+
+        int ttl = applicationPropertiesService.getPluginProperty(PROPERTY_TTL, DEFAULT_TTL);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(ttl > 0 ? MAXIMUM_SIZE : 0)
+                .expireAfterWrite(Math.max(ttl, 0), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Returns true if the user is a member of any of the groups
+     *
+     * @param user the user
+     * @param groups the group names
+     * @return true if the user is a member of at least one group
+     */
+    public boolean isUserInAnyGroup(StashUser user, Collection<String> groups) {
+        for (String group : groups) {
+            if (isUserInGroup(user, group)) return true;
+        }
+
+        return false;
+    }
+
+    public boolean isUserInGroup(StashUser user, String group) {
+        Key key = new Key(user.getName(), group);
+
+        Boolean member = cache.getIfPresent(key);
+        if (member == null) {
+            member = userService.isUserInGroup(user, group);
+            cache.put(key, member);
+        }
+
+        return member;
+    }
+
+    private static class Key {
+        private final String username;
+        private final String group;
+
+        private Key(String username, String group) {
+            this.username = username;
+            this.group = group;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return username.equals(key.username) && group.equals(key.group);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * username.hashCode() + group.hashCode();
+        }
+    }
+}
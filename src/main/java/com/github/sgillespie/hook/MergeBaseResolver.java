@@ -0,0 +1,46 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.io.SingleLineOutputHandler;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.scm.CommandFailedException;
+import com.atlassian.stash.scm.ScmService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.apache.commons.lang3.StringUtils.trimToNull;
+
+/**
+ * Finds the best common ancestor of two changesets with git merge-base. Diffing a pull request from the merge base
+ * to its source validates exactly the changes the merge would introduce.
+ */
+public class MergeBaseResolver {
+    private static final Logger log = LoggerFactory.getLogger(MergeBaseResolver.class);
+
+    private final ScmService scmService;
+
+    public MergeBaseResolver(ScmService scmService) {
+        this.scmService = scmService;
+    }
+
+    /**
+     * Returns the merge base of two changesets
+     *
+     * @param repository the repository containing both changesets
+     * @param changesetId the first changeset, e.g. the target of a pull request
+     * @param otherChangesetId the second changeset, e.g. the source of a pull request
+     * @return the merge base, or null if the changesets have no common ancestor or it could not be determined
+     */
+    public String findMergeBase(Repository repository, String changesetId, String otherChangesetId) {
+        try {
+            return trimToNull(scmService.createBuilder(repository)
+                    .command("merge-base")
+                    .argument(changesetId)
+                    .argument(otherChangesetId)
+                    .build(new SingleLineOutputHandler())
+                    .call());
+        } catch (CommandFailedException e) {
+            log.debug("No merge base of {} and {}", changesetId, otherChangesetId, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the merge check errors of pull requests. A verdict stays valid as long as neither ref of the pull request
+ * moves and the hook settings don't change, so pull requests that are checked repeatedly are only validated once.
+ * Verdicts don't depend on the user, so they are shared by every user checking the pull request. Whether a user is
+ * excluded from the hook is cached separately, for a shorter time, so that changes to permissions and groups are
+ * picked up.
+ *
+ * The size of the cache is configured with the {@value #PROPERTY_SIZE} property in stash-config.properties.
+ */
+public class MergeCheckCache {
+    public static final String PROPERTY_SIZE = "plugin.protect-paths.merge-check-cache.size";
+    public static final int DEFAULT_SIZE = 1000;
+    public static final long EXPIRY_MINUTES = 60;
+    public static final long EXCLUSION_EXPIRY_MINUTES = 5;
+
+    private final Cache<Key, List<String>> cache;
+    private final Cache<List<Object>, Boolean> exclusions;
+
+    public MergeCheckCache(ApplicationPropertiesService applicationPropertiesService) {
+        int size = applicationPropertiesService.getPluginProperty(PROPERTY_SIZE, DEFAULT_SIZE);
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(size, 0))
+                .expireAfterAccess(EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build();
+        this.exclusions = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(size, 0))
+                .expireAfterWrite(EXCLUSION_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Returns the cached errors of a merge check
+     *
+     * @param key the merge check
+     * @return the errors, or null if the merge check isn't cached
+     */
+    public List<String> get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Caches the errors of a merge check
+     *
+     * @param key the merge check
+     * @param errors the errors
+     */
+    public void put(Key key, List<String> errors) {
+        cache.put(key, ImmutableList.copyOf(errors));
+    }
+
+    /**
+     * Returns whether a user is excluded from the hook
+     *
+     * @param repository the repository of the pull request
+     * @param user the user checking the pull request
+     * @param settingsFingerprint the fingerprint of the hook settings
+     * @return true if the user is excluded, or null if the decision isn't cached
+     */
+    public Boolean getExclusion(Repository repository, StashUser user, String settingsFingerprint) {
+        return exclusions.getIfPresent(exclusionKey(repository, user, settingsFingerprint));
+    }
+
+    /**
+     * Caches whether a user is excluded from the hook
+     *
+     * @param repository the repository of the pull request
+     * @param user the user checking the pull request
+     * @param settingsFingerprint the fingerprint of the hook settings
+     * @param excluded true if the user is excluded
+     */
+    public void putExclusion(Repository repository, StashUser user, String settingsFingerprint, boolean excluded) {
+        exclusions.put(exclusionKey(repository, user, settingsFingerprint), excluded);
+    }
+
+    private static List<Object> exclusionKey(Repository repository, StashUser user, String settingsFingerprint) {
+        return Arrays.<Object>asList(repository.getId(), user.getName(), settingsFingerprint);
+    }
+
+    public static class Key {
+        private final int repositoryId;
+        private final String refId;
+        private final String fromHash;
+        private final String toHash;
+        private final String settingsFingerprint;
+
+        /**
+         * @param repository the repository of the pull request
+         * @param refId the target ref of the pull request
+         * @param fromHash the latest changeset of the target ref
+         * @param toHash the latest changeset of the source ref
+         * @param settingsFingerprint the fingerprint of the hook settings
+         */
+        public Key(Repository repository, String refId, String fromHash, String toHash, String settingsFingerprint) {
+            this.repositoryId = repository.getId();
+            this.refId = refId;
+            this.fromHash = fromHash;
+            this.toHash = toHash;
+            this.settingsFingerprint = settingsFingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return repositoryId == key.repositoryId
+                    && refId.equals(key.refId)
+                    && fromHash.equals(key.fromHash)
+                    && toHash.equals(key.toHash)
+                    && settingsFingerprint.equals(key.settingsFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = repositoryId;
+            result = 31 * result + refId.hashCode();
+            result = 31 * result + fromHash.hashCode();
+            result = 31 * result + toHash.hashCode();
+            result = 31 * result + settingsFingerprint.hashCode();
+            return result;
+        }
+    }
+}
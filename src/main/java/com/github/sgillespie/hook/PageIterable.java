@@ -0,0 +1,68 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over every value of a paged resource, following {@link Page#getNextPageRequest()}. Pages are fetched
+ * lazily and only the current page is held in memory.
+ *
+ * @param <T> the type of the paged values
+ */
+public abstract class PageIterable<T> implements Iterable<T> {
+    private final PageRequest pageRequest;
+    private final Page<? extends T> firstPage;
+
+    /**
+     * Iterates over all pages, starting with the specified page request
+     *
+     * @param pageRequest the first page to fetch
+     */
+    protected PageIterable(PageRequest pageRequest) {
+        this.pageRequest = pageRequest;
+        this.firstPage = null;
+    }
+
+    /**
+     * Iterates over an already fetched page, followed by any remaining pages
+     *
+     * @param firstPage the first page
+     */
+    protected PageIterable(Page<? extends T> firstPage) {
+        this.pageRequest = null;
+        this.firstPage = firstPage;
+    }
+
+    /**
+     * Fetches a single page
+     *
+     * @param pageRequest the page to fetch
+     * @return the requested page
+     */
+    protected abstract Page<? extends T> fetchPage(PageRequest pageRequest);
+
+    @Override
+    public Iterator<T> iterator() {
+        return new AbstractIterator<T>() {
+            private Page<? extends T> page = firstPage;
+            private Iterator<? extends T> values = firstPage == null ? null : firstPage.getValues().iterator();
+
+            @Override
+            protected T computeNext() {
+                while (values == null || !values.hasNext()) {
+                    if (page != null && (page.getIsLastPage() || page.getNextPageRequest() == null)) {
+                        return endOfData();
+                    }
+
+                    page = fetchPage(page == null ? pageRequest : page.getNextPageRequest());
+                    values = page.getValues().iterator();
+                }
+
+                return values.next();
+            }
+        };
+    }
+}
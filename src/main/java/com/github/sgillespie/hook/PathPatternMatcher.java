@@ -0,0 +1,263 @@
+package com.github.sgillespie.hook;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.github.sgillespie.hook.Patterns.GLOB_PREFIX;
+import static com.github.sgillespie.hook.Patterns.REGEX_PREFIX;
+import static com.github.sgillespie.hook.Patterns.globToRegex;
+import static com.github.sgillespie.hook.Patterns.hasAlternatives;
+import static com.github.sgillespie.hook.Patterns.unescapeGlobLiteral;
+import static com.github.sgillespie.hook.Patterns.unescapeLiteral;
+
+/**
+ * Matches paths against a list of protected path patterns. Patterns are compiled once, so
+ * a single instance can be shared by every push and merge check using the same settings.
+ *
+ * Literal patterns (x/y/z) and literal directory prefixes (x/.*) are stored in a trie keyed
+ * by path component, so they are matched by walking the path's components without running a
+ * regular expression. The remaining patterns are combined into a single alternation, so a
+ * path that matches none of them (the common case) is scanned once no matter how many
+ * patterns are configured. The individual patterns are only evaluated to report which ones
+ * matched.
+ *
+ * Patterns are regular expressions or globs, depending on the default syntax; a glob: or
+ * regex: prefix selects the syntax of a single pattern. Literal globs and literal directory
+ * globs (x/**) share the trie, and other globs are matched by a {@link GlobMatcher}, which
+ * never backtracks. Globs with {a,b} alternatives are translated to regular expressions.
+ */
+public class PathPatternMatcher {
+    private static final String PREFIX_SUFFIX = "/.*";
+    private static final String GLOB_PREFIX_SUFFIX = "/**";
+
+    // Back references can't be combined, because group numbers shift in the alternation, and named groups can't be
+    // combined, because two patterns may define the same name. (?<= and (?<! are lookbehinds, not named groups
+    private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\(?:[1-9]|k<)|\\(\\?<[^=!]");
+
+    private final List<String> patterns;
+    private final String fingerprint;
+    private final Node trie = new Node();
+    private final Pattern[] compiledPatterns;
+    private final Pattern combinedPattern;
+    private final boolean[] combined;
+    private final GlobMatcher[] globMatchers;
+    private final List<String> literalPaths = new ArrayList<>();
+    private final boolean literal;
+
+    public PathPatternMatcher(List<String> patterns) {
+        this(patterns, PathSyntax.REGEX);
+    }
+
+    /**
+     * @param patterns the patterns to match
+     * @param syntax the syntax of patterns without a glob: or regex: prefix
+     * @throws IllegalArgumentException if a pattern is malformed
+     */
+    public PathPatternMatcher(List<String> patterns, PathSyntax syntax) {
+        this.patterns = new ArrayList<>(patterns);
+        this.fingerprint = Hashing.sha1()
+                .hashString(syntax + "\n" + Joiner.on('\n').join(patterns), Charsets.UTF_8)
+                .toString();
+        this.compiledPatterns = new Pattern[patterns.size()];
+        this.combined = new boolean[patterns.size()];
+        this.globMatchers = new GlobMatcher[patterns.size()];
+
+        StringBuilder alternation = new StringBuilder();
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+
+            if (pattern.startsWith(GLOB_PREFIX)) {
+                pattern = pattern.substring(GLOB_PREFIX.length());
+                if (addGlob(pattern, i)) continue;
+                pattern = globToRegex(pattern);
+            } else if (pattern.startsWith(REGEX_PREFIX)) {
+                pattern = pattern.substring(REGEX_PREFIX.length());
+            } else if (syntax == PathSyntax.GLOB) {
+                if (addGlob(pattern, i)) continue;
+                pattern = globToRegex(pattern);
+            }
+
+            if (addLiteral(pattern, i)) continue;
+
+            compiledPatterns[i] = Pattern.compile(pattern);
+            if (!UNCOMBINABLE.matcher(pattern).find()) {
+                if (alternation.length() > 0) alternation.append('|');
+                alternation.append("(?:").append(pattern).append(')');
+                combined[i] = true;
+            }
+        }
+
+        this.combinedPattern = alternation.length() > 0 ? Pattern.compile(alternation.toString()) : null;
+        this.literal = literalPaths.size() == patterns.size();
+    }
+
+    /**
+     * Returns the patterns that match the specified path
+     *
+     * @param path the path to match
+     * @return the matching patterns, or an empty list if none match
+     */
+    public List<String> match(String path) {
+        BitSet matched = trie.match(path);
+        boolean combinedMatch = combinedPattern != null && combinedPattern.matcher(path).matches();
+
+        for (int i = 0; i < compiledPatterns.length; i++) {
+            if (compiledPatterns[i] == null || (combined[i] && !combinedMatch)) continue;
+
+            if (compiledPatterns[i].matcher(path).matches()) {
+                if (matched == null) matched = new BitSet(patterns.size());
+                matched.set(i);
+            }
+        }
+
+        for (int i = 0; i < globMatchers.length; i++) {
+            if (globMatchers[i] != null && globMatchers[i].matches(path)) {
+                if (matched == null) matched = new BitSet(patterns.size());
+                matched.set(i);
+            }
+        }
+
+        if (matched == null) return Collections.emptyList();
+
+        List<String> matches = new ArrayList<>(matched.cardinality());
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            matches.add(patterns.get(i));
+        }
+        return matches;
+    }
+
+    public List<String> getPatterns() {
+        return Collections.unmodifiableList(patterns);
+    }
+
+    /**
+     * Returns the paths and directories matched by the patterns, if every pattern is a literal path or a literal
+     * directory prefix. A changeset can only change a protected path if it changes one of these paths.
+     *
+     * @return the literal paths, or null if any pattern requires a regular expression or glob
+     */
+    public List<String> getLiteralPaths() {
+        return literal ? Collections.unmodifiableList(literalPaths) : null;
+    }
+
+    /**
+     * Returns a hash of the patterns. Matchers compiled from the same patterns have the same fingerprint.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Adds a glob to the trie, or compiles it into a glob matcher
+     *
+     * @return false if the glob has alternatives, and requires a regular expression
+     */
+    private boolean addGlob(String glob, int index) {
+        String literal = unescapeGlobLiteral(glob);
+        if (literal != null) {
+            addExact(literal, index);
+            return true;
+        }
+
+        if (glob.endsWith(GLOB_PREFIX_SUFFIX)) {
+            literal = unescapeGlobLiteral(glob.substring(0, glob.length() - GLOB_PREFIX_SUFFIX.length()));
+            if (literal != null && !literal.isEmpty()) {
+                addPrefix(literal, index);
+                return true;
+            }
+        }
+
+        if (hasAlternatives(glob)) return false;
+
+        globMatchers[index] = new GlobMatcher(glob);
+        return true;
+    }
+
+    /**
+     * Adds a literal or literal prefix pattern to the trie
+     *
+     * @return false if the pattern requires a regular expression
+     */
+    private boolean addLiteral(String pattern, int index) {
+        String literal = unescapeLiteral(pattern);
+        if (literal != null) {
+            addExact(literal, index);
+            return true;
+        }
+
+        if (pattern.endsWith(PREFIX_SUFFIX)) {
+            literal = unescapeLiteral(pattern.substring(0, pattern.length() - PREFIX_SUFFIX.length()));
+            if (literal != null && !literal.isEmpty()) {
+                addPrefix(literal, index);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void addExact(String path, int index) {
+        trie.add(path).exactPatterns.add(index);
+        literalPaths.add(path);
+    }
+
+    private void addPrefix(String directory, int index) {
+        trie.add(directory).prefixPatterns.add(index);
+        literalPaths.add(directory);
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Integer> exactPatterns = new ArrayList<>();
+        private final List<Integer> prefixPatterns = new ArrayList<>();
+
+        private Node add(String path) {
+            Node node = this;
+            for (String component : path.split("/", -1)) {
+                Node child = node.children.get(component);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(component, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        /**
+         * Walks the path's components, returning the indexes of the matching patterns or null if none match
+         */
+        private BitSet match(String path) {
+            BitSet matched = null;
+            Node node = this;
+            int start = 0;
+
+            while (!node.children.isEmpty()) {
+                int slash = path.indexOf('/', start);
+                node = node.children.get(slash < 0 ? path.substring(start) : path.substring(start, slash));
+                if (node == null) break;
+
+                // Exact patterns match the last component, prefixes match anything beneath
+                List<Integer> patterns = slash < 0 ? node.exactPatterns : node.prefixPatterns;
+                for (Integer index : patterns) {
+                    if (matched == null) matched = new BitSet();
+                    matched.set(index);
+                }
+
+                if (slash < 0) break;
+                start = slash + 1;
+            }
+
+            return matched;
+        }
+    }
+}
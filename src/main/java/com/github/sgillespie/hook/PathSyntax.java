@@ -0,0 +1,8 @@
+package com.github.sgillespie.hook;
+
+/**
+ * The syntax of path patterns without a syntax prefix
+ */
+public enum PathSyntax {
+    REGEX, GLOB
+}
@@ -0,0 +1,65 @@
+package com.github.sgillespie.hook;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.commons.lang3.StringUtils.join;
+
+/**
+ * Collects the protected paths changed by a ref change, grouping the offending changesets under each path.
+ */
+public class PathViolations {
+    private final Map<String, Violation> violations = new LinkedHashMap<>();
+
+    /**
+     * Records a changeset changing a protected path
+     *
+     * @param changesetId the offending changeset
+     * @param path the changed path
+     * @param patterns the protected path patterns matching the path
+     */
+    public void add(String changesetId, String path, List<String> patterns) {
+        Violation violation = violations.get(path);
+        if (violation == null) {
+            violation = new Violation(patterns);
+            violations.put(path, violation);
+        }
+
+        violation.changesetIds.add(changesetId);
+    }
+
+    public boolean isEmpty() {
+        return violations.isEmpty();
+    }
+
+    /**
+     * Returns one error per violating path, listing the changesets that changed it
+     *
+     * @param refId the ref the changesets were pushed to
+     * @return the formatted errors
+     */
+    public List<String> getErrors(String refId) {
+        List<String> errors = new ArrayList<>(violations.size());
+
+        for (Map.Entry<String, Violation> entry : violations.entrySet()) {
+            Violation violation = entry.getValue();
+            errors.add(String.format("%s: %s matches restricted path %s in %s", refId, entry.getKey(),
+                    join(violation.patterns, ", "), join(violation.changesetIds, ", ")));
+        }
+
+        return errors;
+    }
+
+    private static class Violation {
+        private final List<String> patterns;
+        private final Set<String> changesetIds = new LinkedHashSet<>();
+
+        private Violation(List<String> patterns) {
+            this.patterns = patterns;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.sgillespie.hook;
+
+/**
+ * Helpers for classifying and translating the patterns of the hook settings
+ */
+public final class Patterns {
+    public static final String GLOB_PREFIX = "glob:";
+    public static final String REGEX_PREFIX = "regex:";
+
+    private static final String REGEX_METACHARACTERS = ".[]{}()*+?^$|";
+    private static final String GLOB_METACHARACTERS = "*?[]{}";
+
+    private Patterns() {
+    }
+
+    /**
+     * Returns the literal value of a regular expression, or null if it contains regular expression constructs
+     *
+     * @param pattern the regular expression
+     * @return the string matched by the regular expression, or null
+     */
+    public static String unescapeLiteral(String pattern) {
+        StringBuilder literal = new StringBuilder(pattern.length());
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (c == '\\') {
+                // Only escaped punctuation is literal; \d, \Q, \1, etc. are not
+                if (++i == pattern.length() || Character.isLetterOrDigit(pattern.charAt(i))) return null;
+                literal.append(pattern.charAt(i));
+            } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+
+        return literal.toString();
+    }
+
+    /**
+     * Returns the literal value of a glob, or null if it contains wildcards, character classes or alternatives
+     *
+     * @param glob the glob
+     * @return the string matched by the glob, or null
+     */
+    public static String unescapeGlobLiteral(String glob) {
+        StringBuilder literal = new StringBuilder(glob.length());
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+
+            if (c == '\\') {
+                if (++i == glob.length()) return null;
+                literal.append(glob.charAt(i));
+            } else if (GLOB_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+
+        return literal.toString();
+    }
+
+    /**
+     * Returns true if the glob contains {@code {a,b}} alternatives
+     *
+     * @param glob the glob
+     */
+    public static boolean hasAlternatives(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{' || c == '}') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Translates a glob into an equivalent regular expression. {@code *} matches within a path component, {@code **}
+     * matches across components, {@code ?} matches a single character, and {@code [...]} and {@code {a,b}} match
+     * character classes and alternatives. As with {@link GlobMatcher}, only {@code **} matches /.
+     *
+     * @param glob the glob
+     * @return the regular expression
+     * @throws IllegalArgumentException if the glob is malformed
+     */
+    public static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() * 2);
+        int braces = 0;
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            // **/ also matches no directories at all
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    i = appendCharClass(regex, glob, i);
+                    break;
+                case '{':
+                    braces++;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (braces == 0) throw new IllegalArgumentException("Unopened alternative in " + glob);
+                    braces--;
+                    regex.append(')');
+                    break;
+                case ',':
+                    regex.append(braces > 0 ? "|" : ",");
+                    break;
+                case '\\':
+                    if (++i == glob.length()) throw new IllegalArgumentException("Trailing escape in " + glob);
+                    appendLiteral(regex, glob.charAt(i));
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+
+        if (braces > 0) throw new IllegalArgumentException("Unclosed alternative in " + glob);
+        return regex.toString();
+    }
+
+    /**
+     * Appends the character class starting at the specified index, parsed the same way as {@link GlobMatcher}. Like
+     * {@code ?}, a class never matches /, whether or not it is negated.
+     *
+     * @return the index of the closing bracket
+     */
+    private static int appendCharClass(StringBuilder regex, String glob, int start) {
+        int i = start + 1;
+        boolean negated = i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^');
+        if (negated) i++;
+
+        regex.append(negated ? "[^/" : "[");
+        for (int first = i; i < glob.length() && (glob.charAt(i) != ']' || i == first); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                // An escaped - is a member rather than a range, but an escaped letter must not become \d or \w
+                c = glob.charAt(++i);
+                if (!Character.isLetterOrDigit(c)) regex.append('\\');
+            } else if (c == '[' || c == ']' || c == '&' || c == '^') {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+
+        if (i == glob.length()) throw new IllegalArgumentException("Unclosed character class in " + glob);
+
+        regex.append(negated ? "]" : "&&[^/]]");
+        return i;
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if (REGEX_METACHARACTERS.indexOf(c) >= 0 || c == '\\') regex.append('\\');
+        regex.append(c);
+    }
+}
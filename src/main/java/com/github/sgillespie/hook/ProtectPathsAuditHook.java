@@ -0,0 +1,86 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.hook.repository.AsyncPostReceiveRepositoryHook;
+import com.atlassian.stash.hook.repository.RepositoryHookContext;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.apache.commons.lang3.StringUtils.join;
+
+/**
+ * Audits pushes to paths that are only watched, not protected. Pushes are validated like the protect paths hook
+ * validates them, but after they have been accepted and on a background thread, so auditing adds no latency to the
+ * push. Violations are logged rather than rejected.
+ */
+public class ProtectPathsAuditHook implements AsyncPostReceiveRepositoryHook {
+    private static final Logger log = LoggerFactory.getLogger(ProtectPathsAuditHook.class);
+
+    private final ProtectPathsChangesetService protectPathsChangesetService;
+    private final StashAuthenticationContext stashAuthenticationContext;
+    private final AuditExecutor auditExecutor;
+    private final ProtectPathsMetrics metrics;
+
+    public ProtectPathsAuditHook(ProtectPathsChangesetService protectPathsChangesetService,
+                                 StashAuthenticationContext stashAuthenticationContext,
+                                 AuditExecutor auditExecutor,
+                                 ProtectPathsMetrics metrics) {
+        this.protectPathsChangesetService = protectPathsChangesetService;
+        this.stashAuthenticationContext = stashAuthenticationContext;
+        this.auditExecutor = auditExecutor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void postReceive(@Nonnull RepositoryHookContext context, @Nonnull Collection<RefChange> refChanges) {
+        final Repository repository = context.getRepository();
+        final Settings settings = context.getSettings();
+        final List<RefChange> auditedRefChanges = new ArrayList<>(refChanges);
+        final StashUser user = stashAuthenticationContext.getCurrentUser();
+
+        boolean queued = auditExecutor.submit(user, new Runnable() {
+            @Override
+            public void run() {
+                audit(repository, settings, auditedRefChanges, user);
+            }
+        });
+        if (!queued) {
+            log.warn("{}: push by {} was not audited", repository.getSlug(), getName(user));
+        }
+    }
+
+    /**
+     * Validates the pushed ref changes, logging any violations
+     */
+    private void audit(Repository repository, Settings settings, Collection<RefChange> refChanges, StashUser user) {
+        long start = System.nanoTime();
+        List<String> errors = new ArrayList<>();
+        try {
+            errors = protectPathsChangesetService.auditRefChanges(repository, settings, refChanges);
+        } catch (ValidationTimeoutException e) {
+            log.warn("{}: audit of push by {} incomplete: {}", repository.getSlug(), getName(user), e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("{}: audit of push by {} failed", repository.getSlug(), getName(user), e);
+        } finally {
+            metrics.recordAudit(System.nanoTime() - start, !errors.isEmpty());
+        }
+
+        if (!errors.isEmpty()) {
+            log.warn("{}: push by {} changed protected paths:\n{}", repository.getSlug(), getName(user),
+                    join(errors, "\n"));
+        }
+    }
+
+    private static String getName(StashUser user) {
+        return user == null ? "anonymous" : user.getName();
+    }
+}
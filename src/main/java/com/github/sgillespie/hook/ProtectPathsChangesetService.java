@@ -1,8 +1,11 @@
 package com.github.sgillespie.hook;
 
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ProtectPathsChangesetService {
@@ -11,4 +14,42 @@ public interface ProtectPathsChangesetService {
                                            String refId,
                                            String fromHash,
                                            String toHash);
+
+    /**
+     * Validates the changesets a pull request would merge. The result is cached until either ref of the pull request
+     * moves or the settings change.
+     *
+     * @param repository the repository of the pull request
+     * @param settings the hook settings
+     * @param pullRequest the pull request
+     * @return the errors of the pull request
+     */
+    public List<String> validatePullRequest(Repository repository,
+                                            Settings settings,
+                                            PullRequest pullRequest);
+
+    /**
+     * Validates all ref changes of a push. Changesets shared by several refs are only fetched and validated once.
+     *
+     * @param repository the repository pushed to
+     * @param settings the hook settings
+     * @param refChanges the pushed ref changes
+     * @return the errors of every ref change, in the order of the ref changes
+     */
+    public List<String> validateRefChanges(Repository repository,
+                                           Settings settings,
+                                           Collection<RefChange> refChanges);
+
+    /**
+     * Validates all ref changes of a push like {@link #validateRefChanges}, for the audit hook. The scanned changesets
+     * are counted apart from those of pushes and merge checks.
+     *
+     * @param repository the repository pushed to
+     * @param settings the audit hook settings
+     * @param refChanges the pushed ref changes
+     * @return the errors of every ref change, in the order of the ref changes
+     */
+    public List<String> auditRefChanges(Repository repository,
+                                        Settings settings,
+                                        Collection<RefChange> refChanges);
 }
@@ -2,9 +2,15 @@ package com.github.sgillespie.hook;
 
 import com.atlassian.stash.commit.CommitService;
 import com.atlassian.stash.content.*;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.repository.Branch;
+import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryBranchesRequest;
+import com.atlassian.stash.repository.RepositoryMetadataService;
+import com.atlassian.stash.server.ApplicationPropertiesService;
 import com.atlassian.stash.setting.Settings;
-import com.atlassian.stash.user.Permission;
 import com.atlassian.stash.user.PermissionService;
 import com.atlassian.stash.user.StashAuthenticationContext;
 import com.atlassian.stash.user.StashUser;
@@ -12,19 +18,47 @@ import com.atlassian.stash.util.Page;
 import com.atlassian.stash.util.PageRequest;
 import com.atlassian.stash.util.PageRequestImpl;
 import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import org.apache.commons.lang3.StringUtils;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ProtectPathsChangesetServiceImpl implements ProtectPathsChangesetService {
-    public static final PageRequest PAGE_REQUEST = new PageRequestImpl(0, PageRequest.MAX_PAGE_LIMIT);
+    public static final String PROPERTY_PATH_FILTER = "plugin.protect-paths.path-filter";
+    public static final boolean DEFAULT_PATH_FILTER = false;
+    public static final String PROPERTY_GIT_LOG = "plugin.protect-paths.git-log";
+    public static final boolean DEFAULT_GIT_LOG = false;
+
+    public static final int PAGE_LIMIT = 100;
+    public static final PageRequest PAGE_REQUEST = new PageRequestImpl(0, PAGE_LIMIT);
+    public static final PageRequest BRANCH_PAGE_REQUEST = new PageRequestImpl(0, PageRequest.MAX_PAGE_LIMIT);
 
     private final CommitService commitService;
+    private final RepositoryMetadataService repositoryMetadataService;
     private final PermissionService permissionService;
     private final StashAuthenticationContext stashAuthenticationContext;
     private final SettingsFactoryService settingsFactoryService;
+    private final ChangesetResultCache changesetResultCache;
+    private final MergeCheckCache mergeCheckCache;
+    private final GroupMembershipCache groupMembershipCache;
+    private final ValidationExecutor validationExecutor;
+    private final MergeBaseResolver mergeBaseResolver;
+    private final GitChangeSource gitChangeSource;
+    private final ProtectPathsMetrics metrics;
+    private final boolean pathFilter;
+    private final boolean gitLog;
 
     public static final Function<Changeset, String> CHANGESET_TO_ID =
             new Function<Changeset, String>() {
@@ -42,106 +76,707 @@ public class ProtectPathsChangesetServiceImpl implements ProtectPathsChangesetSe
             };
 
     public ProtectPathsChangesetServiceImpl(CommitService commitService,
+                                            RepositoryMetadataService repositoryMetadataService,
                                             PermissionService permissionService,
                                             StashAuthenticationContext stashAuthenticationContext,
-                                            SettingsFactoryService settingsFactoryService) {
+                                            SettingsFactoryService settingsFactoryService,
+                                            ChangesetResultCache changesetResultCache,
+                                            MergeCheckCache mergeCheckCache,
+                                            GroupMembershipCache groupMembershipCache,
+                                            ValidationExecutor validationExecutor,
+                                            MergeBaseResolver mergeBaseResolver,
+                                            GitChangeSource gitChangeSource,
+                                            ApplicationPropertiesService applicationPropertiesService,
+                                            ProtectPathsMetrics metrics) {
         this.commitService = commitService;
+        this.repositoryMetadataService = repositoryMetadataService;
         this.permissionService = permissionService;
         this.stashAuthenticationContext = stashAuthenticationContext;
         this.settingsFactoryService = settingsFactoryService;
+        this.changesetResultCache = changesetResultCache;
+        this.mergeCheckCache = mergeCheckCache;
+        this.groupMembershipCache = groupMembershipCache;
+        this.validationExecutor = validationExecutor;
+        this.mergeBaseResolver = mergeBaseResolver;
+        this.gitChangeSource = gitChangeSource;
+        this.metrics = metrics;
+        this.pathFilter = applicationPropertiesService.getPluginProperty(PROPERTY_PATH_FILTER, DEFAULT_PATH_FILTER);
+        this.gitLog = applicationPropertiesService.getPluginProperty(PROPERTY_GIT_LOG, DEFAULT_GIT_LOG);
     }
 
     @Override
     public List<String> validateChangesets(Repository repository, Settings settings, String refId, String fromHash,
                                            String toHash) {
-        List<String> errors = new ArrayList<>();
+        ProtectPathsSettings protectPathsSettings = settingsFactoryService.getSettings(settings);
+        return validate(repository, protectPathsSettings,
+                Collections.singletonList(refRange(protectPathsSettings, refId, fromHash, toHash)),
+                metrics.getHookScans());
+    }
+
+    @Override
+    public List<String> validatePullRequest(Repository repository, Settings settings, PullRequest pullRequest) {
+        ProtectPathsSettings protectPathsSettings = settingsFactoryService.getSettings(settings);
+        PullRequestRef fromRef = pullRequest.getFromRef();
+        PullRequestRef toRef = pullRequest.getToRef();
+
+        MergeCheckCache.Key key = new MergeCheckCache.Key(repository, toRef.getId(), toRef.getLatestChangeset(),
+                fromRef.getLatestChangeset(), protectPathsSettings.getFingerprint());
+        List<String> errors = mergeCheckCache.get(key);
+        metrics.recordMergeCheckCache(errors != null);
+        if (errors == null) {
+            // Excluded users don't need a verdict
+            if (isExcludedFromMergeCheck(repository, protectPathsSettings)) return new ArrayList<>();
+
+            errors = validateRanges(repository, protectPathsSettings,
+                    Collections.singletonList(pullRequestRange(repository, protectPathsSettings, pullRequest)),
+                    metrics.getHookScans());
+            mergeCheckCache.put(key, errors);
+        }
+
+        // The cached verdict is shared by every user, so only a violating one needs the user's exclusion
+        if (errors.isEmpty() || isExcludedFromMergeCheck(repository, protectPathsSettings)) {
+            return new ArrayList<>();
+        }
+        return errors;
+    }
+
+    @Override
+    public List<String> validateRefChanges(Repository repository, Settings settings,
+                                           Collection<RefChange> refChanges) {
+        return validateRefChanges(repository, settings, refChanges, metrics.getHookScans());
+    }
+
+    @Override
+    public List<String> auditRefChanges(Repository repository, Settings settings, Collection<RefChange> refChanges) {
+        return validateRefChanges(repository, settings, refChanges, metrics.getAuditScans());
+    }
+
+    private List<String> validateRefChanges(Repository repository, Settings settings,
+                                            Collection<RefChange> refChanges, ScanMetrics scanMetrics) {
+        ProtectPathsSettings protectPathsSettings = settingsFactoryService.getSettings(settings);
+        List<RefRange> refRanges = new ArrayList<>(refChanges.size());
+        for (RefChange refChange : refChanges) {
+            refRanges.add(refRange(protectPathsSettings, refChange.getRefId(), refChange.getFromHash(),
+                    refChange.getToHash()));
+        }
 
+        return validate(repository, protectPathsSettings, refRanges, scanMetrics);
+    }
+
+    private List<String> validate(Repository repository, ProtectPathsSettings protectPathsSettings,
+                                  List<RefRange> refRanges, ScanMetrics scanMetrics) {
         // Admins and excluded users
-        if (shouldExcludeUser(settings, repository, stashAuthenticationContext.getCurrentUser()))
+        if (authorize(repository, protectPathsSettings).isExcluded())
             return new ArrayList<>();
 
+        return validateRanges(repository, protectPathsSettings, refRanges, scanMetrics);
+    }
+
+    /**
+     * Validates the changesets of the ref ranges, or their diffs
+     *
+     * @param scanMetrics the counters of the scanned changesets, either those of pushes and merge checks or of audits
+     */
+    private List<String> validateRanges(final Repository repository, ProtectPathsSettings settings,
+                                        List<RefRange> refRanges, final ScanMetrics scanMetrics) {
         // Get protected paths
-        List<String> pathRegexps = settingsFactoryService.getPathPatterns(settings);
-
-        if (!shouldIncludeBranch(settings, refId)) return new ArrayList<>();
-
-        Page<Changeset> changesets = findNewChangeSets(repository, fromHash, toHash);
-        for (Changeset changeset : changesets.getValues()) {
-            Page<DetailedChangeset> detailedChangesets = getDetailedChangesets(repository, changesets);
-            for (DetailedChangeset detailedChangeset : detailedChangesets.getValues()) {
-                // Validate the paths
-                Page<Path> paths = detailedChangeset.getChanges().transform(CHANGE_TO_PATH);
-                for (Path path : paths.getValues()) {
-                    for (String regexp : pathRegexps) {
-                        if (path.toString().matches(regexp)) {
-                            errors.add(String.format("%s: %s matches restricted path %s", refId,
-                                    changeset.getId(), regexp));
+        final PathPatternMatcher pathMatcher = settings.getPathMatcher();
+        final ValidationProgress progress = new ValidationProgress(settings.getMaxViolations(),
+                settings.getTimeout(), TimeUnit.SECONDS);
+
+        // Paths already matched in this push, mapped to the patterns they match
+        final Map<String, List<String>> matchedPaths = new ConcurrentHashMap<>();
+
+        // Only changesets changing the protected paths need to be found, when those paths are known up front
+        final List<String> queryPaths = getQueryPaths(pathMatcher);
+
+        // Find the new changesets of every protected ref, or diff its tips, or scan its changes with git log
+        Map<String, PathViolations> refViolations = new LinkedHashMap<>();
+        List<RefRange> protectedRanges = new ArrayList<>(refRanges.size());
+        List<RefRange> scanRanges = new ArrayList<>();
+        List<Callable<List<String>>> findTasks = new ArrayList<>(refRanges.size());
+        List<Callable<List<ChangesetMatches>>> scanTasks = new ArrayList<>();
+        // The tips of the branches before the push, fetched once for all created refs
+        Collection<String> branchTips = null;
+        for (final RefRange refRange : refRanges) {
+            // Deleted refs don't add any changesets
+            if (isNullHash(refRange.toHash) || !settings.isIncludedRef(refRange.refId)) continue;
+
+            refViolations.put(refRange.refId, new PathViolations());
+
+            if (refRange.diff) {
+                scanRanges.add(refRange);
+                scanTasks.add(new Callable<List<ChangesetMatches>>() {
+                    @Override
+                    public List<ChangesetMatches> call() {
+                        return Collections.singletonList(
+                                matchDiff(repository, pathMatcher, refRange, matchedPaths, progress, scanMetrics));
+                    }
+                });
+                continue;
+            }
+
+            // Only changesets not reachable from any existing branch are new to a created ref
+            if (isNullHash(refRange.fromHash) && branchTips == null) {
+                branchTips = getBranchTips(repository, settings, refRanges, scanMetrics);
+            }
+            final Collection<String> excludes = isNullHash(refRange.fromHash)
+                    ? branchTips
+                    : Collections.singletonList(refRange.fromHash);
+
+            if (gitLog) {
+                scanRanges.add(refRange);
+                scanTasks.add(new Callable<List<ChangesetMatches>>() {
+                    @Override
+                    public List<ChangesetMatches> call() {
+                        return scanChangesets(repository, pathMatcher, excludes, refRange.toHash, queryPaths,
+                                matchedPaths, progress, scanMetrics);
+                    }
+                });
+                continue;
+            }
+
+            protectedRanges.add(refRange);
+            findTasks.add(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    List<String> changesetIds = new ArrayList<>();
+                    for (Changeset changeset : findNewChangeSets(repository, excludes, refRange.toHash,
+                            queryPaths, scanMetrics)) {
+                        if (progress.isTimedOut()) {
+                            progress.markIncomplete();
+                            break;
                         }
+                        changesetIds.add(changeset.getId());
                     }
+                    return changesetIds;
                 }
+            });
+        }
+        List<List<String>> newChangesetIds = validationExecutor.invokeAll(findTasks);
+
+        List<List<ChangesetMatches>> scanMatches = validationExecutor.invokeAll(scanTasks);
+        for (int i = 0; i < scanRanges.size(); i++) {
+            List<PathViolations> refs = Collections.singletonList(refViolations.get(scanRanges.get(i).refId));
+            for (ChangesetMatches matches : scanMatches.get(i)) {
+                addViolations(matches.changesetId, matches.matches, refs);
             }
         }
 
-        return errors;
+        // Map each changeset to the refs it was pushed to
+        Map<String, List<PathViolations>> changesetRefs = new LinkedHashMap<>();
+        for (int i = 0; i < protectedRanges.size(); i++) {
+            PathViolations violations = refViolations.get(protectedRanges.get(i).refId);
+
+            for (String changesetId : newChangesetIds.get(i)) {
+                List<PathViolations> refs = changesetRefs.get(changesetId);
+                if (refs == null) {
+                    refs = new ArrayList<>(1);
+                    changesetRefs.put(changesetId, refs);
+                }
+                refs.add(violations);
+            }
+        }
+
+        // Apply the cached results, and fetch the remaining changesets
+        List<String> uncachedChangesetIds = new ArrayList<>();
+        for (Map.Entry<String, List<PathViolations>> entry : changesetRefs.entrySet()) {
+            Map<String, List<String>> matches = changesetResultCache.get(repository, pathMatcher, entry.getKey());
+            scanMetrics.recordChangesetCache(matches != null);
+            if (matches == null) {
+                uncachedChangesetIds.add(entry.getKey());
+            } else {
+                addViolations(entry.getKey(), matches, entry.getValue());
+                for (String path : matches.keySet()) progress.addViolation(path);
+            }
+        }
+
+        // Fetch and validate each distinct changeset once, one page at a time
+        List<Callable<List<ChangesetMatches>>> matchTasks = new ArrayList<>();
+        for (final List<String> changesetIds : Iterables.partition(uncachedChangesetIds, PAGE_LIMIT)) {
+            matchTasks.add(new Callable<List<ChangesetMatches>>() {
+                @Override
+                public List<ChangesetMatches> call() {
+                    return matchChangesets(repository, pathMatcher, changesetIds, matchedPaths, progress,
+                            scanMetrics);
+                }
+            });
+        }
+        if (!matchTasks.isEmpty() && progress.isStopped()) {
+            progress.markIncomplete();
+            matchTasks.clear();
+        }
+
+        for (List<ChangesetMatches> changesetMatches : validationExecutor.invokeAll(matchTasks)) {
+            for (ChangesetMatches matches : changesetMatches) {
+                List<PathViolations> refs = changesetRefs.get(matches.changesetId);
+                if (refs == null) continue;
+
+                // Partially scanned changesets can't be cached
+                if (matches.complete) {
+                    changesetResultCache.put(repository, pathMatcher, matches.changesetId, matches.matches);
+                }
+                addViolations(matches.changesetId, matches.matches, refs);
+            }
+        }
+
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<String, PathViolations> entry : refViolations.entrySet()) {
+            errors.addAll(entry.getValue().getErrors(entry.getKey()));
+        }
+
+        // Violations found before running out of time still reject the push
+        if (progress.isIncomplete() && !progress.hasViolations()) {
+            throw new ValidationTimeoutException(String.format(
+                    "Validation of protected paths timed out after %d seconds", settings.getTimeout()),
+                    settings.getTimeoutAction());
+        }
+
+        return progress.summarize(errors);
     }
 
     /**
-     * Returns true if the user is an administrator or an excluded user
+     * Fetches the changes of a page of changesets and matches them against the protected paths. Stops as soon as
+     * the maximum number of violations has been found.
      *
-     * @param settings the hook settings
-     * @param user the currently logged in user
-     * @return true if the user is an administrator or an excluded user
+     * @return the changed paths matching protected path patterns, by changeset
      */
-    private boolean shouldExcludeUser(Settings settings, Repository repository, StashUser user) {
-        Boolean isRepoAdmin = permissionService.hasRepositoryPermission(repository, Permission.REPO_ADMIN);
-        Boolean isExcluded = settingsFactoryService.getExcludedUsers(settings).contains(user.getName());
+    private List<ChangesetMatches> matchChangesets(Repository repository,
+                                                   PathPatternMatcher pathMatcher,
+                                                   List<String> changesetIds,
+                                                   Map<String, List<String>> matchedPaths,
+                                                   ValidationProgress progress,
+                                                   ScanMetrics scanMetrics) {
+        List<ChangesetMatches> changesetMatches = new ArrayList<>();
+        Scan scan = new Scan();
+
+        for (DetailedChangeset detailedChangeset : getDetailedChangesets(repository, changesetIds, scanMetrics)) {
+            if (progress.isStopped()) {
+                progress.markIncomplete();
+                break;
+            }
+
+            ChangesetMatches matches = new ChangesetMatches(detailedChangeset.getToChangeset().getId());
+            matchChanges(getChanges(repository, detailedChangeset, scanMetrics), pathMatcher, matchedPaths,
+                    progress, matches, scan);
+            changesetMatches.add(matches);
+        }
 
-        return isRepoAdmin || isExcluded;
+        scanMetrics.recordScan(changesetMatches.size(), scan.paths, scan.evaluations, scan.matchNanos);
+        return changesetMatches;
     }
 
-    private Boolean shouldIncludeBranch(Settings settings, String refId) {
-        FilterType filterType = settingsFactoryService.getFilterType(settings);
-        List<String> branchPatterns = settingsFactoryService.getBranchFilters(settings);
+    /**
+     * Streams the changed paths of the changesets reachable from toHash, but not from any of the excluded changesets,
+     * from a single git log command, and matches them against the protected paths. Finds the same paths as fetching
+     * the detailed changesets, without building a changeset for each commit. git log doesn't list the changes of
+     * merges, so each merge is diffed against its first parent afterwards. Stops as soon as the maximum number of
+     * violations has been found.
+     *
+     * @param paths if not null, only changesets changing these paths are scanned
+     * @return the changed paths matching protected path patterns, by changeset
+     */
+    private List<ChangesetMatches> scanChangesets(final Repository repository,
+                                                  final PathPatternMatcher pathMatcher,
+                                                  Collection<String> excludes,
+                                                  String toHash,
+                                                  Collection<String> paths,
+                                                  final Map<String, List<String>> matchedPaths,
+                                                  final ValidationProgress progress,
+                                                  final ScanMetrics scanMetrics) {
+        final List<ChangesetMatches> changesetMatches = new ArrayList<>();
+        final List<ChangesetMatches> scannedMatches = new ArrayList<>();
+        // The first parent of each merge, by merge
+        final Map<ChangesetMatches, String> mergeParents = new LinkedHashMap<>();
+        final Scan scan = new Scan();
+        if (progress.isStopped()) {
+            progress.markIncomplete();
+            return changesetMatches;
+        }
+
+        long start = System.nanoTime();
+        gitChangeSource.scan(repository, excludes, toHash, paths, new GitChangesOutputHandler.Callback() {
+            private ChangesetMatches current;
+
+            @Override
+            public boolean startChangeset(String changesetId, List<String> parentIds) {
+                current = new ChangesetMatches(changesetId);
+                changesetMatches.add(current);
+
+                // Apply the cached result, rather than matching the changes again
+                Map<String, List<String>> matches = changesetResultCache.get(repository, pathMatcher, changesetId);
+                scanMetrics.recordChangesetCache(matches != null);
+                if (matches == null) {
+                    scannedMatches.add(current);
+                    if (parentIds.size() > 1) mergeParents.put(current, parentIds.get(0));
+                    return true;
+                }
+
+                current.matches.putAll(matches);
+                for (String path : matches.keySet()) progress.addViolation(path);
+                return false;
+            }
+
+            @Override
+            public void change(String path) {
+                matchPath(path, pathMatcher, matchedPaths, progress, current, scan);
+            }
+
+            @Override
+            public boolean isStopped() {
+                if (!progress.isStopped()) return false;
 
-        switch (filterType) {
-            case ALL:
+                progress.markIncomplete();
+                if (current != null) current.complete = false;
                 return true;
-            case INCLUDE:
-                return matchesBranch(branchPatterns, refId);
-            case EXCLUDE:
-                return !matchesBranch(branchPatterns, refId);
-            default:
-                return null;
+            }
+        });
+        scanMetrics.recordFetch(System.nanoTime() - start - scan.matchNanos);
+
+        for (Map.Entry<ChangesetMatches, String> merge : mergeParents.entrySet()) {
+            ChangesetMatches matches = merge.getKey();
+            if (progress.isStopped()) {
+                progress.markIncomplete();
+                matches.complete = false;
+                continue;
+            }
+
+            matchChanges(getChanges(repository, merge.getValue(), matches.changesetId, scanMetrics), pathMatcher,
+                    matchedPaths, progress, matches, scan);
         }
+
+        // Partially scanned changesets can't be cached
+        for (ChangesetMatches matches : scannedMatches) {
+            if (matches.complete) {
+                changesetResultCache.put(repository, pathMatcher, matches.changesetId, matches.matches);
+            }
+        }
+
+        scanMetrics.recordScan(scannedMatches.size(), scan.paths, scan.evaluations, scan.matchNanos);
+        return changesetMatches;
     }
 
-    private Page<DetailedChangeset> findDetailedChangeSets(Repository repository, String fromHash, String toHash) {
-        return getDetailedChangesets(repository, findNewChangeSets(repository, fromHash, toHash));
+    /**
+     * Diffs the old and new tips of a ref, and matches the changed paths against the protected paths. Changes that
+     * were made and reverted within the range don't appear in the diff.
+     *
+     * @return the changed paths matching protected path patterns, reported against the range fromHash..toHash
+     */
+    private ChangesetMatches matchDiff(Repository repository,
+                                       PathPatternMatcher pathMatcher,
+                                       RefRange refRange,
+                                       Map<String, List<String>> matchedPaths,
+                                       ValidationProgress progress,
+                                       ScanMetrics scanMetrics) {
+        ChangesetMatches matches = new ChangesetMatches(refRange.fromHash + ".." + refRange.toHash);
+        Scan scan = new Scan();
+
+        if (progress.isStopped()) {
+            progress.markIncomplete();
+        } else {
+            matchChanges(getChanges(repository, refRange.fromHash, refRange.toHash, scanMetrics), pathMatcher,
+                    matchedPaths, progress, matches, scan);
+        }
+
+        scanMetrics.recordScan(1, scan.paths, scan.evaluations, scan.matchNanos);
+        return matches;
+    }
+
+    /**
+     * Matches changed paths against the protected paths, until the maximum number of violations has been found
+     */
+    private void matchChanges(Iterable<Change> changes,
+                              PathPatternMatcher pathMatcher,
+                              Map<String, List<String>> matchedPaths,
+                              ValidationProgress progress,
+                              ChangesetMatches matches,
+                              Scan scan) {
+        for (Path path : Iterables.transform(changes, CHANGE_TO_PATH)) {
+            if (progress.isStopped()) {
+                progress.markIncomplete();
+                matches.complete = false;
+                break;
+            }
+
+            matchPath(path.toString(), pathMatcher, matchedPaths, progress, matches, scan);
+        }
+    }
+
+    /**
+     * Matches a changed path against the protected paths. Each distinct path is only matched once per push.
+     */
+    private void matchPath(String path,
+                           PathPatternMatcher pathMatcher,
+                           Map<String, List<String>> matchedPaths,
+                           ValidationProgress progress,
+                           ChangesetMatches matches,
+                           Scan scan) {
+        List<String> patterns = matchedPaths.get(path);
+        if (patterns == null) {
+            long start = System.nanoTime();
+            patterns = pathMatcher.match(path);
+            scan.matchNanos += System.nanoTime() - start;
+            scan.evaluations++;
+            matchedPaths.put(path, patterns);
+        }
+        scan.paths++;
+
+        if (!patterns.isEmpty()) {
+            matches.matches.put(path, patterns);
+            progress.addViolation(path);
+        }
+    }
+
+    private void addViolations(String changesetId, Map<String, List<String>> matches, List<PathViolations> refs) {
+        for (Map.Entry<String, List<String>> match : matches.entrySet()) {
+            for (PathViolations violations : refs) {
+                violations.add(changesetId, match.getKey(), match.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the user checking a pull request is excluded from the hook. The decision is cached, so pull
+     * requests that are checked repeatedly don't query permissions or groups every time.
+     */
+    private boolean isExcludedFromMergeCheck(Repository repository, ProtectPathsSettings settings) {
+        StashUser user = stashAuthenticationContext.getCurrentUser();
+        Boolean excluded = mergeCheckCache.getExclusion(repository, user, settings.getFingerprint());
+        if (excluded == null) {
+            excluded = authorize(repository, settings).isExcluded();
+            mergeCheckCache.putExclusion(repository, user, settings.getFingerprint(), excluded);
+        }
+        return excluded;
+    }
+
+    /**
+     * Returns the authorization context of the currently logged in user
+     *
+     * @param repository the validated repository
+     * @param settings the hook settings
+     * @return the authorization context, shared by every ref change of the push or merge check
+     */
+    private AuthorizationContext authorize(Repository repository, ProtectPathsSettings settings) {
+        return new AuthorizationContext(permissionService, groupMembershipCache, settings, repository,
+                stashAuthenticationContext.getCurrentUser());
+    }
+
+    /**
+     * Returns the range of a pushed ref change. In net-diff mode, the range is diffed unless the ref was created,
+     * because a created ref has no old tip to diff against.
+     */
+    private RefRange refRange(ProtectPathsSettings settings, String refId, String fromHash, String toHash) {
+        boolean diff = settings.getValidationMode() == ValidationMode.NET_DIFF && !isNullHash(fromHash);
+        return new RefRange(refId, fromHash, toHash, diff);
+    }
+
+    /**
+     * Returns the range of changes a pull request would merge. In net-diff mode, the pull request is diffed from the
+     * merge base of its refs, so changes merged into the source from the target aren't validated again. Without a
+     * merge base, the changesets of the pull request are validated instead.
+     */
+    private RefRange pullRequestRange(Repository repository, ProtectPathsSettings settings,
+                                      PullRequest pullRequest) {
+        String refId = pullRequest.getToRef().getId();
+        String toHash = pullRequest.getToRef().getLatestChangeset();
+        String fromHash = pullRequest.getFromRef().getLatestChangeset();
+
+        if (settings.getValidationMode() == ValidationMode.NET_DIFF && settings.isIncludedRef(refId)) {
+            String mergeBase = mergeBaseResolver.findMergeBase(repository, toHash, fromHash);
+            if (mergeBase != null) return new RefRange(refId, mergeBase, fromHash, true);
+        }
+
+        return new RefRange(refId, toHash, fromHash, false);
+    }
+
+    /**
+     * Returns true if the hash is git's all-zero hash, used as the old tip of created refs and the new tip of
+     * deleted refs
+     */
+    private static boolean isNullHash(String hash) {
+        return StringUtils.containsOnly(hash, '0');
     }
 
-    private Page<Changeset> findNewChangeSets(Repository repository, String fromHash, String toHash) {
-        ChangesetsBetweenRequest changesetsBetweenRequest = new ChangesetsBetweenRequest.Builder(repository)
-                .exclude(fromHash)
-                .include(toHash)
+    /**
+     * Returns the distinct tips of the repository's branches before the pushed ref changes. Post-receive hooks run
+     * after the refs have moved, so the pushed branches are replaced by their old tips; otherwise the tip of a
+     * created branch would exclude every changeset of that branch. Only protected branches are included: changesets
+     * on branches the branch filter leaves unprotected were never validated.
+     *
+     * @param refRanges the pushed ref changes
+     */
+    private Collection<String> getBranchTips(Repository repository, ProtectPathsSettings settings,
+                                             Collection<RefRange> refRanges, final ScanMetrics scanMetrics) {
+        final RepositoryBranchesRequest branchesRequest = new RepositoryBranchesRequest.Builder()
+                .repository(repository)
                 .build();
-        return commitService.getChangesetsBetween(changesetsBetweenRequest, PAGE_REQUEST);
+        Iterable<Branch> branches = new PageIterable<Branch>(BRANCH_PAGE_REQUEST) {
+            @Override
+            protected Page<? extends Branch> fetchPage(PageRequest pageRequest) {
+                long start = System.nanoTime();
+                try {
+                    return repositoryMetadataService.getBranches(branchesRequest, pageRequest);
+                } finally {
+                    scanMetrics.recordFetch(System.nanoTime() - start);
+                }
+            }
+        };
+
+        Set<String> pushedRefs = new HashSet<>();
+        Set<String> branchTips = new LinkedHashSet<>();
+        for (RefRange refRange : refRanges) {
+            pushedRefs.add(refRange.refId);
+            if (refRange.refId.startsWith(RefMatcher.BRANCH_PREFIX) && !isNullHash(refRange.fromHash)
+                    && settings.isIncludedRef(refRange.refId)) {
+                branchTips.add(refRange.fromHash);
+            }
+        }
+        for (Branch branch : branches) {
+            if (!pushedRefs.contains(branch.getId()) && settings.isIncludedRef(branch.getId())) {
+                branchTips.add(branch.getLatestChangeset());
+            }
+        }
+        return branchTips;
+    }
+
+    /**
+     * Returns the paths changesets can be filtered by, so that changesets not changing any protected path are never
+     * fetched. Regular expressions and globs can match any path, so they can't be used to filter changesets.
+     *
+     * @return the literal paths and directories of the path patterns, or null to find all changesets
+     */
+    private List<String> getQueryPaths(PathPatternMatcher pathMatcher) {
+        List<String> literalPaths = pathFilter ? pathMatcher.getLiteralPaths() : null;
+        if (literalPaths == null || literalPaths.isEmpty()) return null;
+
+        // git would read a leading colon as pathspec magic, and an empty path as every path
+        for (String path : literalPaths) {
+            if (path.isEmpty() || path.startsWith(":")) return null;
+        }
+        return literalPaths;
     }
 
-    private Page<DetailedChangeset> getDetailedChangesets(Repository repository, Page<Changeset> changeSets) {
-        Page<String> changeSetIds = changeSets.transform(CHANGESET_TO_ID);
+    /**
+     * Returns the changesets reachable from toHash, but not from any of the excluded changesets
+     *
+     * @param paths if not null, only changesets changing these paths are returned
+     */
+    private Iterable<Changeset> findNewChangeSets(Repository repository, Collection<String> excludes,
+                                                  String toHash, Collection<String> paths,
+                                                  final ScanMetrics scanMetrics) {
+        ChangesetsBetweenRequest.Builder builder = new ChangesetsBetweenRequest.Builder(repository)
+                .exclude(excludes)
+                .include(toHash);
+        if (paths != null) builder.paths(paths);
+
+        final ChangesetsBetweenRequest changesetsBetweenRequest = builder.build();
+        return new PageIterable<Changeset>(PAGE_REQUEST) {
+            @Override
+            protected Page<? extends Changeset> fetchPage(PageRequest pageRequest) {
+                long start = System.nanoTime();
+                try {
+                    return commitService.getChangesetsBetween(changesetsBetweenRequest, pageRequest);
+                } finally {
+                    scanMetrics.recordFetch(System.nanoTime() - start);
+                }
+            }
+        };
+    }
 
-        DetailedChangesetsRequest detailedChangesetsRequest = new DetailedChangesetsRequest.Builder(repository)
-                .changesetIds(changeSetIds.getValues())
-                .maxChangesPerCommit(PageRequest.MAX_PAGE_LIMIT)
+    /**
+     * Returns the detailed changesets, each with the first page of its changes. The changes of large changesets are
+     * fetched one page at a time by {@link #getChanges(Repository, DetailedChangeset, ScanMetrics)}, so a page of
+     * changesets never holds more than PAGE_LIMIT changes of each.
+     */
+    private Iterable<DetailedChangeset> getDetailedChangesets(Repository repository, List<String> changesetIds,
+                                                              final ScanMetrics scanMetrics) {
+        final DetailedChangesetsRequest detailedChangesetsRequest = new DetailedChangesetsRequest.Builder(repository)
+                .changesetIds(changesetIds)
+                .maxChangesPerCommit(PAGE_LIMIT)
                 .build();
-        return commitService.getDetailedChangesets(detailedChangesetsRequest, PAGE_REQUEST);
+        return new PageIterable<DetailedChangeset>(PAGE_REQUEST) {
+            @Override
+            protected Page<? extends DetailedChangeset> fetchPage(PageRequest pageRequest) {
+                long start = System.nanoTime();
+                try {
+                    return commitService.getDetailedChangesets(detailedChangesetsRequest, pageRequest);
+                } finally {
+                    scanMetrics.recordFetch(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns all changes of a changeset. Changes beyond those included in the detailed changeset are fetched
+     * one page at a time.
+     */
+    private Iterable<Change> getChanges(Repository repository, DetailedChangeset detailedChangeset,
+                                        final ScanMetrics scanMetrics) {
+        final ChangesRequest changesRequest = new ChangesRequest.Builder(repository,
+                detailedChangeset.getToChangeset().getId()).build();
+        return new PageIterable<Change>(detailedChangeset.getChanges()) {
+            @Override
+            protected Page<? extends Change> fetchPage(PageRequest pageRequest) {
+                long start = System.nanoTime();
+                try {
+                    return commitService.getChanges(changesRequest, pageRequest);
+                } finally {
+                    scanMetrics.recordFetch(System.nanoTime() - start);
+                }
+            }
+        };
     }
 
-    private boolean matchesBranch(Collection<String> regexps, String refId) {
-        for (String branch : regexps) {
-            if (refId.matches("refs/heads/" + branch)) return true;
+    /**
+     * Returns the changes between two changesets, one page at a time
+     */
+    private Iterable<Change> getChanges(Repository repository, String fromHash, String toHash,
+                                        final ScanMetrics scanMetrics) {
+        final ChangesRequest changesRequest = new ChangesRequest.Builder(repository, toHash)
+                .sinceId(fromHash)
+                .build();
+        return new PageIterable<Change>(PAGE_REQUEST) {
+            @Override
+            protected Page<? extends Change> fetchPage(PageRequest pageRequest) {
+                long start = System.nanoTime();
+                try {
+                    return commitService.getChanges(changesRequest, pageRequest);
+                } finally {
+                    scanMetrics.recordFetch(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    private static class RefRange {
+        private final String refId;
+        private final String fromHash;
+        private final String toHash;
+        // Whether the range is diffed, rather than validated changeset by changeset
+        private final boolean diff;
+
+        private RefRange(String refId, String fromHash, String toHash, boolean diff) {
+            this.refId = refId;
+            this.fromHash = fromHash;
+            this.toHash = toHash;
+            this.diff = diff;
         }
+    }
+
+    private static class ChangesetMatches {
+        private final String changesetId;
+        private final Map<String, List<String>> matches = new LinkedHashMap<>();
+        private boolean complete = true;
+
+        private ChangesetMatches(String changesetId) {
+            this.changesetId = changesetId;
+        }
+    }
 
-        return false;
+    private static class Scan {
+        private long paths;
+        private long evaluations;
+        private long matchNanos;
     }
 }
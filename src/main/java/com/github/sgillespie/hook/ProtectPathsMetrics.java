@@ -0,0 +1,276 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the hook's counters and timers, and publishes them as the {@value #OBJECT_NAME} MBean while the plugin is
+ * enabled.
+ */
+public class ProtectPathsMetrics implements ProtectPathsMetricsMXBean, InitializingBean, DisposableBean {
+    public static final String OBJECT_NAME = "com.github.sgillespie.hook:type=ProtectPathsMetrics";
+
+    private static final Logger log = LoggerFactory.getLogger(ProtectPathsMetrics.class);
+
+    private final AtomicLong hookInvocations = new AtomicLong();
+    private final AtomicLong hookNanos = new AtomicLong();
+    private final AtomicLong maxHookNanos = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final ScanMetrics hookScans = new ScanMetrics();
+    private final ScanMetrics auditScans = new ScanMetrics();
+    private final AtomicLong mergeCheckCacheHits = new AtomicLong();
+    private final AtomicLong mergeCheckCacheMisses = new AtomicLong();
+    private final AtomicLong audits = new AtomicLong();
+    private final AtomicLong auditNanos = new AtomicLong();
+    private final AtomicLong auditViolations = new AtomicLong();
+    private final AtomicLong auditsDropped = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> repositoryHookNanos = new ConcurrentHashMap<>();
+
+    /**
+     * Records a push or merge check
+     *
+     * @param repository the validated repository
+     * @param nanos the time spent by the hook
+     * @param rejected true if the push or merge was rejected
+     */
+    public void recordHook(Repository repository, long nanos, boolean rejected) {
+        hookInvocations.incrementAndGet();
+        hookNanos.addAndGet(nanos);
+        if (rejected) rejections.incrementAndGet();
+
+        long max = maxHookNanos.get();
+        while (nanos > max && !maxHookNanos.compareAndSet(max, nanos)) {
+            max = maxHookNanos.get();
+        }
+
+        String key = repository.getProject().getKey() + "/" + repository.getSlug();
+        AtomicLong repositoryNanos = repositoryHookNanos.get(key);
+        if (repositoryNanos == null) {
+            repositoryHookNanos.putIfAbsent(key, new AtomicLong());
+            repositoryNanos = repositoryHookNanos.get(key);
+        }
+        repositoryNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Returns the scan counters of pushes and merge checks
+     */
+    public ScanMetrics getHookScans() {
+        return hookScans;
+    }
+
+    /**
+     * Returns the scan counters of audits
+     */
+    public ScanMetrics getAuditScans() {
+        return auditScans;
+    }
+
+    public void recordMergeCheckCache(boolean hit) {
+        (hit ? mergeCheckCacheHits : mergeCheckCacheMisses).incrementAndGet();
+    }
+
+    /**
+     * Records an audited push
+     *
+     * @param nanos the time spent auditing the push, in the background
+     * @param violated true if the push changed protected paths
+     */
+    public void recordAudit(long nanos, boolean violated) {
+        audits.incrementAndGet();
+        auditNanos.addAndGet(nanos);
+        if (violated) auditViolations.incrementAndGet();
+    }
+
+    /**
+     * Records a push that wasn't audited, because the audit queue was full
+     */
+    public void recordAuditDrop() {
+        auditsDropped.incrementAndGet();
+    }
+
+    @Override
+    public long getHookInvocations() {
+        return hookInvocations.get();
+    }
+
+    @Override
+    public long getHookTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hookNanos.get());
+    }
+
+    @Override
+    public long getMaxHookTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHookNanos.get());
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    @Override
+    public long getFetchTimeMillis() {
+        return hookScans.getFetchTimeMillis();
+    }
+
+    @Override
+    public long getMatchTimeMillis() {
+        return hookScans.getMatchTimeMillis();
+    }
+
+    @Override
+    public long getChangesetsScanned() {
+        return hookScans.getChangesetsScanned();
+    }
+
+    @Override
+    public long getPathsScanned() {
+        return hookScans.getPathsScanned();
+    }
+
+    @Override
+    public long getPatternEvaluations() {
+        return hookScans.getPatternEvaluations();
+    }
+
+    @Override
+    public long getChangesetCacheHits() {
+        return hookScans.getChangesetCacheHits();
+    }
+
+    @Override
+    public long getChangesetCacheMisses() {
+        return hookScans.getChangesetCacheMisses();
+    }
+
+    @Override
+    public long getMergeCheckCacheHits() {
+        return mergeCheckCacheHits.get();
+    }
+
+    @Override
+    public long getMergeCheckCacheMisses() {
+        return mergeCheckCacheMisses.get();
+    }
+
+    @Override
+    public long getAudits() {
+        return audits.get();
+    }
+
+    @Override
+    public long getAuditTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(auditNanos.get());
+    }
+
+    @Override
+    public long getAuditViolations() {
+        return auditViolations.get();
+    }
+
+    @Override
+    public long getAuditsDropped() {
+        return auditsDropped.get();
+    }
+
+    @Override
+    public long getAuditFetchTimeMillis() {
+        return auditScans.getFetchTimeMillis();
+    }
+
+    @Override
+    public long getAuditMatchTimeMillis() {
+        return auditScans.getMatchTimeMillis();
+    }
+
+    @Override
+    public long getAuditChangesetsScanned() {
+        return auditScans.getChangesetsScanned();
+    }
+
+    @Override
+    public long getAuditPathsScanned() {
+        return auditScans.getPathsScanned();
+    }
+
+    @Override
+    public long getAuditPatternEvaluations() {
+        return auditScans.getPatternEvaluations();
+    }
+
+    @Override
+    public long getAuditChangesetCacheHits() {
+        return auditScans.getChangesetCacheHits();
+    }
+
+    @Override
+    public long getAuditChangesetCacheMisses() {
+        return auditScans.getChangesetCacheMisses();
+    }
+
+    @Override
+    public Map<String, Long> getRepositoryHookTimeMillis() {
+        Map<String, Long> repositoryHookTime = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : repositoryHookNanos.entrySet()) {
+            repositoryHookTime.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().get()));
+        }
+        return repositoryHookTime;
+    }
+
+    @Override
+    public void reset() {
+        for (AtomicLong counter : new AtomicLong[] {hookInvocations, hookNanos, maxHookNanos, rejections,
+                mergeCheckCacheHits, mergeCheckCacheMisses, audits, auditNanos, auditViolations, auditsDropped}) {
+            counter.set(0);
+        }
+        hookScans.reset();
+        auditScans.reset();
+        repositoryHookNanos.clear();
+    }
+
+    /**
+     * Registers the MBean, replacing one left behind by a previously loaded version of the plugin
+     */
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+
+            if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Unable to register {}", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Unregisters the MBean, so it doesn't outlive the plugin
+     */
+    @Override
+    public void destroy() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+
+            if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Unable to unregister {}", OBJECT_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.sgillespie.hook;
+
+import java.util.Map;
+
+/**
+ * Counters and timers of the protect paths hook, published through JMX
+ */
+public interface ProtectPathsMetricsMXBean {
+    long getHookInvocations();
+
+    long getHookTimeMillis();
+
+    long getMaxHookTimeMillis();
+
+    long getRejections();
+
+    long getFetchTimeMillis();
+
+    long getMatchTimeMillis();
+
+    long getChangesetsScanned();
+
+    long getPathsScanned();
+
+    long getPatternEvaluations();
+
+    long getChangesetCacheHits();
+
+    long getChangesetCacheMisses();
+
+    long getMergeCheckCacheHits();
+
+    long getMergeCheckCacheMisses();
+
+    long getAudits();
+
+    long getAuditTimeMillis();
+
+    /**
+     * Returns the number of audited pushes that changed protected paths
+     */
+    long getAuditViolations();
+
+    /**
+     * Returns the number of pushes that weren't audited, because the audit queue was full
+     */
+    long getAuditsDropped();
+
+    long getAuditFetchTimeMillis();
+
+    long getAuditMatchTimeMillis();
+
+    long getAuditChangesetsScanned();
+
+    long getAuditPathsScanned();
+
+    long getAuditPatternEvaluations();
+
+    long getAuditChangesetCacheHits();
+
+    long getAuditChangesetCacheMisses();
+
+    /**
+     * Returns the total hook time of each repository, keyed by PROJECT/repository
+     */
+    Map<String, Long> getRepositoryHookTimeMillis();
+
+    void reset();
+}
@@ -5,15 +5,15 @@ import com.atlassian.stash.hook.repository.PreReceiveRepositoryHook;
 import com.atlassian.stash.hook.repository.RepositoryHookContext;
 import com.atlassian.stash.hook.repository.RepositoryMergeRequestCheck;
 import com.atlassian.stash.hook.repository.RepositoryMergeRequestCheckContext;
-import com.atlassian.stash.pull.PullRequestRef;
 import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.util.PageRequest;
 import com.atlassian.stash.util.PageRequestImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -24,10 +24,15 @@ public class ProtectPathsRepositoryHook implements PreReceiveRepositoryHook,
 
     public static final PageRequest PAGE_REQUEST = new PageRequestImpl(0, PageRequest.MAX_PAGE_LIMIT);
 
+    private static final Logger log = LoggerFactory.getLogger(ProtectPathsRepositoryHook.class);
+
     private final ProtectPathsChangesetService protectPathsChangesetService;
+    private final ProtectPathsMetrics metrics;
 
-    public ProtectPathsRepositoryHook(ProtectPathsChangesetService protectPathsChangesetService) {
+    public ProtectPathsRepositoryHook(ProtectPathsChangesetService protectPathsChangesetService,
+                                      ProtectPathsMetrics metrics) {
         this.protectPathsChangesetService = protectPathsChangesetService;
+        this.metrics = metrics;
     }
 
     @Override
@@ -35,14 +40,52 @@ public class ProtectPathsRepositoryHook implements PreReceiveRepositoryHook,
                              @Nonnull Collection<RefChange> refChanges,
                              @Nonnull HookResponse hookResponse) {
         Repository repository = context.getRepository();
-        Settings settings = context.getSettings();
+        long start = System.nanoTime();
+        boolean accepted = false;
+        try {
+            accepted = validateRefChanges(repository, context.getSettings(), refChanges, hookResponse);
+            return accepted;
+        } finally {
+            metrics.recordHook(repository, System.nanoTime() - start, !accepted);
+        }
+    }
 
-        List<String> errors = new ArrayList<>();
+    @Override
+    public void check(@Nonnull RepositoryMergeRequestCheckContext context) {
+        Repository repository = context
+                .getMergeRequest()
+                .getPullRequest()
+                .getFromRef()
+                .getRepository();
+        long start = System.nanoTime();
+        boolean accepted = false;
+        try {
+            accepted = validatePullRequest(repository, context);
+        } finally {
+            metrics.recordHook(repository, System.nanoTime() - start, !accepted);
+        }
+    }
 
-        for (RefChange refChange : refChanges) {
-            List<String> res = protectPathsChangesetService.validateChangesets(repository,
-                    settings, refChange.getRefId(), refChange.getFromHash(), refChange.getToHash());
-            errors.addAll(res);
+    /**
+     * Validates the pushed ref changes, printing any violations
+     *
+     * @return true if the push is allowed
+     */
+    private boolean validateRefChanges(Repository repository, Settings settings, Collection<RefChange> refChanges,
+                                       HookResponse hookResponse) {
+        List<String> errors;
+        try {
+            errors = protectPathsChangesetService.validateRefChanges(repository, settings, refChanges);
+        } catch (ValidationTimeoutException e) {
+            if (e.getTimeoutAction() == TimeoutAction.ALLOW) {
+                log.warn("{}: {}; push allowed", repository.getSlug(), e.getMessage());
+                hookResponse.err().println("Warning: " + e.getMessage() + ". Push allowed.");
+                return true;
+            }
+
+            hookResponse.err().println("Push rejected!");
+            hookResponse.err().println(e.getMessage() + ".");
+            return false;
         }
 
         if (!errors.isEmpty()) {
@@ -58,23 +101,32 @@ public class ProtectPathsRepositoryHook implements PreReceiveRepositoryHook,
         return errors.isEmpty();
     }
 
-    @Override
-    public void check(@Nonnull RepositoryMergeRequestCheckContext context) {
-        Repository repository = context
-                .getMergeRequest()
-                .getPullRequest()
-                .getFromRef()
-                .getRepository();
+    /**
+     * Validates a pull request, vetoing the merge if it changes protected paths
+     *
+     * @return true if the merge is allowed
+     */
+    private boolean validatePullRequest(Repository repository, RepositoryMergeRequestCheckContext context) {
         Settings settings = context.getSettings();
 
-        PullRequestRef fromRef = context.getMergeRequest().getPullRequest().getFromRef();
-        PullRequestRef toRef = context.getMergeRequest().getPullRequest().getToRef();
+        List<String> errors;
+        try {
+            errors = protectPathsChangesetService.validatePullRequest(repository, settings,
+                    context.getMergeRequest().getPullRequest());
+        } catch (ValidationTimeoutException e) {
+            if (e.getTimeoutAction() == TimeoutAction.ALLOW) {
+                log.warn("{}: {}; merge allowed", repository.getSlug(), e.getMessage());
+                return true;
+            }
 
-        List<String> errors = protectPathsChangesetService.validateChangesets(repository, settings, toRef.getId(),
-                toRef.getLatestChangeset(), fromRef.getLatestChangeset());
+            context.getMergeRequest().veto("Protected paths could not be validated!", e.getMessage());
+            return false;
+        }
 
         if (!errors.isEmpty()) {
             context.getMergeRequest().veto("There are changes to protected paths!", join(errors, "\n"));
         }
+
+        return errors.isEmpty();
     }
 }
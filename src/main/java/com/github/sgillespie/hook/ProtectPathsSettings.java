@@ -0,0 +1,112 @@
+package com.github.sgillespie.hook;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The hook settings of a repository, parsed and compiled once. Instances are immutable, so a single instance is
+ * shared by every push and merge check until the settings change.
+ */
+public class ProtectPathsSettings {
+    private final PathPatternMatcher pathMatcher;
+    private final FilterType filterType;
+    private final RefMatcher branchMatcher;
+    private final Set<String> excludedUsers;
+    private final Set<String> excludedGroups;
+    private final int maxViolations;
+    private final int timeout;
+    private final TimeoutAction timeoutAction;
+    private final ValidationMode validationMode;
+    private final String fingerprint;
+
+    public ProtectPathsSettings(PathPatternMatcher pathMatcher,
+                                FilterType filterType,
+                                Collection<String> branchFilters,
+                                Collection<String> excludedUsers,
+                                Collection<String> excludedGroups,
+                                int maxViolations,
+                                int timeout,
+                                TimeoutAction timeoutAction,
+                                ValidationMode validationMode,
+                                String fingerprint) {
+        this.pathMatcher = pathMatcher;
+        this.filterType = filterType;
+        this.excludedUsers = ImmutableSet.copyOf(excludedUsers);
+        this.excludedGroups = ImmutableSet.copyOf(excludedGroups);
+        this.maxViolations = maxViolations;
+        this.timeout = timeout;
+        this.timeoutAction = timeoutAction;
+        this.validationMode = validationMode;
+        this.fingerprint = fingerprint;
+        // Branch filters are ignored by the ALL filter, so they're only compiled when they are used
+        this.branchMatcher = filterType == FilterType.INCLUDE || filterType == FilterType.EXCLUDE
+                ? new RefMatcher(branchFilters)
+                : null;
+    }
+
+    public PathPatternMatcher getPathMatcher() {
+        return pathMatcher;
+    }
+
+    public FilterType getFilterType() {
+        return filterType;
+    }
+
+    /**
+     * Returns true if changes to the specified ref are validated, according to the branch filter
+     *
+     * @param refId the changed ref
+     */
+    public boolean isIncludedRef(String refId) {
+        switch (filterType) {
+            case INCLUDE:
+                return branchMatcher.matches(refId);
+            case EXCLUDE:
+                return !branchMatcher.matches(refId);
+            default:
+                return true;
+        }
+    }
+
+    public boolean isExcludedUser(String username) {
+        return excludedUsers.contains(username);
+    }
+
+    /**
+     * Returns the groups whose members are excluded from the hook
+     */
+    public Set<String> getExcludedGroups() {
+        return excludedGroups;
+    }
+
+    /**
+     * Returns the number of violating paths after which validation stops, or 0 to report all violations
+     */
+    public int getMaxViolations() {
+        return maxViolations;
+    }
+
+    /**
+     * Returns the number of seconds after which validation stops, or 0 to never time out
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public TimeoutAction getTimeoutAction() {
+        return timeoutAction;
+    }
+
+    public ValidationMode getValidationMode() {
+        return validationMode;
+    }
+
+    /**
+     * Returns a hash of the settings the snapshot was compiled from
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+}
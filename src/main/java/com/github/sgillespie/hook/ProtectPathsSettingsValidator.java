@@ -8,6 +8,8 @@ import org.apache.commons.lang3.StringUtils;
 
 import javax.annotation.Nonnull;
 
+import static java.util.Arrays.asList;
+
 public class ProtectPathsSettingsValidator  implements RepositorySettingsValidator {
     @Override
     public void validate(@Nonnull Settings settings,
@@ -15,6 +17,34 @@ public class ProtectPathsSettingsValidator  implements RepositorySettingsValidat
                          @Nonnull Repository repository) {
         if (StringUtils.isEmpty(settings.getString("pathPatterns"))) {
             settingsValidationErrors.addFieldError("pathPatterns", "Path Patterns is mandatory");
+        } else {
+            try {
+                String syntax = StringUtils.defaultIfEmpty(settings.getString("pathSyntax"), "REGEX");
+                new PathPatternMatcher(asList(StringUtils.split(settings.getString("pathPatterns"))),
+                        PathSyntax.valueOf(syntax));
+            } catch (IllegalArgumentException e) {
+                settingsValidationErrors.addFieldError("pathPatterns", "Invalid path pattern: " + e.getMessage());
+            }
+        }
+
+        String filterType = settings.getString("filterType");
+        if ("INCLUDE".equals(filterType) || "EXCLUDE".equals(filterType)) {
+            try {
+                String branchFilters = StringUtils.defaultString(settings.getString("branchFilter"));
+                new RefMatcher(asList(StringUtils.split(branchFilters)));
+            } catch (IllegalArgumentException e) {
+                settingsValidationErrors.addFieldError("branchFilter", "Invalid branch filter: " + e.getMessage());
+            }
+        }
+
+        String maxViolations = StringUtils.trim(settings.getString("maxViolations"));
+        if (!StringUtils.isEmpty(maxViolations) && !StringUtils.isNumeric(maxViolations)) {
+            settingsValidationErrors.addFieldError("maxViolations", "Maximum Violations must be a positive number");
+        }
+
+        String timeout = StringUtils.trim(settings.getString("timeout"));
+        if (!StringUtils.isEmpty(timeout) && !StringUtils.isNumeric(timeout)) {
+            settingsValidationErrors.addFieldError("timeout", "Timeout must be a positive number of seconds");
         }
     }
 }
@@ -0,0 +1,66 @@
+package com.github.sgillespie.hook;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.github.sgillespie.hook.Patterns.GLOB_PREFIX;
+import static com.github.sgillespie.hook.Patterns.globToRegex;
+import static com.github.sgillespie.hook.Patterns.unescapeLiteral;
+
+/**
+ * Matches ref IDs against the branch filters of the hook settings. Filters are compiled once.
+ *
+ * A filter is a regular expression of a branch name (release/.*), or of a full ref name if it starts with refs/
+ * (refs/tags/v.*). Filters prefixed with glob: are globs instead (glob:release/*, glob:refs/tags/**). Filters
+ * without regular expression or glob constructs are looked up in a hash set, so matching a ref against any number
+ * of plain branch names takes constant time.
+ */
+public class RefMatcher {
+    public static final String REF_PREFIX = "refs/";
+    public static final String BRANCH_PREFIX = "refs/heads/";
+
+    private final Set<String> literalRefs;
+    private final List<Pattern> refPatterns;
+
+    public RefMatcher(Collection<String> filters) {
+        ImmutableSet.Builder<String> literalRefs = ImmutableSet.builder();
+        ImmutableList.Builder<Pattern> refPatterns = ImmutableList.builder();
+
+        for (String filter : filters) {
+            String regex = filter.startsWith(GLOB_PREFIX)
+                    ? globToRegex(filter.substring(GLOB_PREFIX.length()))
+                    : filter;
+            if (!regex.startsWith(REF_PREFIX)) regex = BRANCH_PREFIX + regex;
+
+            String literal = unescapeLiteral(regex);
+            if (literal != null) {
+                literalRefs.add(literal);
+            } else {
+                refPatterns.add(Pattern.compile(regex));
+            }
+        }
+
+        this.literalRefs = literalRefs.build();
+        this.refPatterns = refPatterns.build();
+    }
+
+    /**
+     * Returns true if the ref matches any of the filters
+     *
+     * @param refId the full ref ID, e.g. refs/heads/master
+     */
+    public boolean matches(String refId) {
+        if (literalRefs.contains(refId)) return true;
+
+        for (Pattern refPattern : refPatterns) {
+            if (refPattern.matcher(refId).matches()) return true;
+        }
+
+        return false;
+    }
+}
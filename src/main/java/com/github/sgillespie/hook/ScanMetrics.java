@@ -0,0 +1,81 @@
+package com.github.sgillespie.hook;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the changesets and paths scanned by validations, and the time spent fetching and matching them. Pushes and
+ * merge checks are counted apart from audits, so background audits don't distort the figures of the blocking hook.
+ */
+public class ScanMetrics {
+    private final AtomicLong fetchNanos = new AtomicLong();
+    private final AtomicLong matchNanos = new AtomicLong();
+    private final AtomicLong changesetsScanned = new AtomicLong();
+    private final AtomicLong pathsScanned = new AtomicLong();
+    private final AtomicLong patternEvaluations = new AtomicLong();
+    private final AtomicLong changesetCacheHits = new AtomicLong();
+    private final AtomicLong changesetCacheMisses = new AtomicLong();
+
+    /**
+     * Records a CommitService request
+     *
+     * @param nanos the time spent waiting for CommitService
+     */
+    public void recordFetch(long nanos) {
+        fetchNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Records the matching of a page of changesets
+     *
+     * @param changesets the number of changesets scanned
+     * @param paths the number of changed paths scanned
+     * @param evaluations the number of paths matched against the path patterns
+     * @param nanos the time spent matching paths
+     */
+    public void recordScan(long changesets, long paths, long evaluations, long nanos) {
+        changesetsScanned.addAndGet(changesets);
+        pathsScanned.addAndGet(paths);
+        patternEvaluations.addAndGet(evaluations);
+        matchNanos.addAndGet(nanos);
+    }
+
+    public void recordChangesetCache(boolean hit) {
+        (hit ? changesetCacheHits : changesetCacheMisses).incrementAndGet();
+    }
+
+    public long getFetchTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos.get());
+    }
+
+    public long getMatchTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(matchNanos.get());
+    }
+
+    public long getChangesetsScanned() {
+        return changesetsScanned.get();
+    }
+
+    public long getPathsScanned() {
+        return pathsScanned.get();
+    }
+
+    public long getPatternEvaluations() {
+        return patternEvaluations.get();
+    }
+
+    public long getChangesetCacheHits() {
+        return changesetCacheHits.get();
+    }
+
+    public long getChangesetCacheMisses() {
+        return changesetCacheMisses.get();
+    }
+
+    public void reset() {
+        for (AtomicLong counter : new AtomicLong[] {fetchNanos, matchNanos, changesetsScanned, pathsScanned,
+                patternEvaluations, changesetCacheHits, changesetCacheMisses}) {
+            counter.set(0);
+        }
+    }
+}
@@ -5,11 +5,48 @@ import com.atlassian.stash.setting.Settings;
 import java.util.List;
 
 public interface SettingsFactoryService {
+    /**
+     * Returns the compiled hook settings. Settings are compiled once and shared by every hook and repository with the
+     * same values.
+     *
+     * @param settings the hook settings
+     * @return the compiled settings
+     */
+    ProtectPathsSettings getSettings(Settings settings);
+
     List<String> getPathPatterns(Settings settings);
 
+    /**
+     * Returns the syntax of path patterns without a glob: or regex: prefix
+     */
+    PathSyntax getPathSyntax(Settings settings);
+
+    PathPatternMatcher getPathMatcher(Settings settings);
+
     FilterType getFilterType(Settings settings);
 
     List<String> getBranchFilters(Settings settings);
 
     List<String> getExcludedUsers(Settings settings);
+
+    List<String> getExcludedGroups(Settings settings);
+
+    /**
+     * Returns the number of violating paths after which validation stops, or 0 to report all violations
+     */
+    int getMaxViolations(Settings settings);
+
+    /**
+     * Returns the number of seconds after which validation stops, or 0 to never time out
+     */
+    int getTimeout(Settings settings);
+
+    TimeoutAction getTimeoutAction(Settings settings);
+
+    ValidationMode getValidationMode(Settings settings);
+
+    /**
+     * Returns a hash of the hook settings. Settings with the same values have the same fingerprint.
+     */
+    String getFingerprint(Settings settings);
 }
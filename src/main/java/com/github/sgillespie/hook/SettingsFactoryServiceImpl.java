@@ -1,24 +1,92 @@
 package com.github.sgillespie.hook;
 
 import com.atlassian.stash.setting.Settings;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.google.common.base.Strings.nullToEmpty;
 import static java.util.Arrays.asList;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
+import static org.apache.commons.lang3.StringUtils.trim;
+import static org.apache.commons.lang3.math.NumberUtils.toInt;
 
 public class SettingsFactoryServiceImpl implements SettingsFactoryService {
     public static final String KEY_PATH_PATTERNS = "pathPatterns";
+    public static final String KEY_PATH_SYNTAX = "pathSyntax";
     public static final String KEY_FILTER_TYPE = "filterType";
     public static final String KEY_BRANCH_FILTERS = "branchFilter";
     public static final String KEY_EXCLUDED_USERS = "excludeUsers";
+    public static final String KEY_EXCLUDED_GROUPS = "excludeGroups";
+    public static final String KEY_MAX_VIOLATIONS = "maxViolations";
+    public static final String KEY_TIMEOUT = "timeout";
+    public static final String KEY_TIMEOUT_ACTION = "timeoutAction";
+    public static final String KEY_VALIDATION_MODE = "validationMode";
+
+    public static final int PATH_MATCHER_CACHE_SIZE = 100;
+    public static final int SETTINGS_CACHE_SIZE = 1000;
+
+    private static final List<String> SETTINGS_KEYS =
+            asList(KEY_PATH_PATTERNS, KEY_PATH_SYNTAX, KEY_FILTER_TYPE, KEY_BRANCH_FILTERS, KEY_EXCLUDED_USERS, KEY_EXCLUDED_GROUPS,
+                    KEY_MAX_VIOLATIONS, KEY_TIMEOUT, KEY_TIMEOUT_ACTION, KEY_VALIDATION_MODE);
+
+    // Compiled matchers, keyed by the path syntax and the raw pathPatterns value
+    private final LoadingCache<List<String>, PathPatternMatcher> pathMatchers = CacheBuilder.newBuilder()
+            .maximumSize(PATH_MATCHER_CACHE_SIZE)
+            .build(new CacheLoader<List<String>, PathPatternMatcher>() {
+                @Override
+                public PathPatternMatcher load(List<String> key) {
+                    return new PathPatternMatcher(split(key.get(1)), PathSyntax.valueOf(key.get(0)));
+                }
+            });
+
+    // Compiled settings, keyed by the raw values they were compiled from. Several hooks of a repository, like the
+    // audit and protect paths hooks, have their own settings, while repositories with the same settings share them
+    private final Cache<List<String>, ProtectPathsSettings> compiledSettings = CacheBuilder.newBuilder()
+            .maximumSize(SETTINGS_CACHE_SIZE)
+            .build();
+
+    @Override
+    public ProtectPathsSettings getSettings(Settings settings) {
+        List<String> values = getValues(settings);
+
+        ProtectPathsSettings compiled = compiledSettings.getIfPresent(values);
+        if (compiled == null) {
+            compiled = new ProtectPathsSettings(getPathMatcher(settings), getFilterType(settings),
+                    getBranchFilters(settings), getExcludedUsers(settings), getExcludedGroups(settings),
+                    getMaxViolations(settings), getTimeout(settings), getTimeoutAction(settings),
+                    getValidationMode(settings), getFingerprint(settings));
+            compiledSettings.put(values, compiled);
+        }
+
+        return compiled;
+    }
 
     @Override
     public List<String> getPathPatterns(Settings settings) {
         return getList(settings, KEY_PATH_PATTERNS);
     }
 
+    @Override
+    public PathSyntax getPathSyntax(Settings settings) {
+        String syntax = settings.getString(KEY_PATH_SYNTAX, "REGEX");
+        return PathSyntax.valueOf(syntax);
+    }
+
+    @Override
+    public PathPatternMatcher getPathMatcher(Settings settings) {
+        return pathMatchers.getUnchecked(
+                asList(getPathSyntax(settings).name(), nullToEmpty(settings.getString(KEY_PATH_PATTERNS))));
+    }
+
     @Override
     public FilterType getFilterType(Settings settings) {
         String filter = settings.getString(KEY_FILTER_TYPE, "ALL");
@@ -35,8 +103,57 @@ public class SettingsFactoryServiceImpl implements SettingsFactoryService {
         return getList(settings, KEY_EXCLUDED_USERS);
     }
 
+    @Override
+    public List<String> getExcludedGroups(Settings settings) {
+        return getList(settings, KEY_EXCLUDED_GROUPS);
+    }
+
+    @Override
+    public int getMaxViolations(Settings settings) {
+        return Math.max(toInt(trim(settings.getString(KEY_MAX_VIOLATIONS)), 0), 0);
+    }
+
+    @Override
+    public int getTimeout(Settings settings) {
+        return Math.max(toInt(trim(settings.getString(KEY_TIMEOUT)), 0), 0);
+    }
+
+    @Override
+    public TimeoutAction getTimeoutAction(Settings settings) {
+        String timeoutAction = settings.getString(KEY_TIMEOUT_ACTION, "REJECT");
+        return TimeoutAction.valueOf(timeoutAction);
+    }
+
+    @Override
+    public ValidationMode getValidationMode(Settings settings) {
+        String validationMode = settings.getString(KEY_VALIDATION_MODE, "COMMITS");
+        return ValidationMode.valueOf(validationMode);
+    }
+
+    @Override
+    public String getFingerprint(Settings settings) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String value : getValues(settings)) {
+            hasher.putString(value, Charsets.UTF_8).putByte((byte) 0);
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private List<String> getValues(Settings settings) {
+        List<String> values = new ArrayList<>(SETTINGS_KEYS.size());
+        for (String key : SETTINGS_KEYS) {
+            values.add(nullToEmpty(settings.getString(key)));
+        }
+        return values;
+    }
+
     private List<String> getList(Settings settings, String key) {
-        String value = settings.getString(key);
-        return isEmpty(value) ? new ArrayList<String>() : asList(value.split("\\s+"));
+        return split(settings.getString(key));
+    }
+
+    private static List<String> split(String value) {
+        // Leading whitespace would otherwise split into an empty pattern
+        return isEmpty(value) ? new ArrayList<String>() : asList(StringUtils.split(value));
     }
 }
@@ -0,0 +1,5 @@
+package com.github.sgillespie.hook;
+
+public enum TimeoutAction {
+    REJECT, ALLOW
+}
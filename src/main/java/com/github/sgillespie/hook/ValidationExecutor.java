@@ -0,0 +1,117 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.UncheckedOperation;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs validation tasks on a small, bounded thread pool owned by the plugin. Idle threads time out, so the pool
+ * holds no threads between pushes.
+ *
+ * The size of the pool is configured with the {@value #PROPERTY_THREADS} property in stash-config.properties. With
+ * a single thread (the default), tasks run sequentially on the calling thread. The pool is shut down when the plugin
+ * is disabled.
+ */
+public class ValidationExecutor implements DisposableBean {
+    public static final String PROPERTY_THREADS = "plugin.protect-paths.threads";
+    public static final int DEFAULT_THREADS = 1;
+    public static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final SecurityService securityService;
+    private final ThreadPoolExecutor executor;
+
+    public ValidationExecutor(ApplicationPropertiesService applicationPropertiesService,
+                              SecurityService securityService) {
+        this.securityService = securityService;
+
+        int threads = applicationPropertiesService.getPluginProperty(PROPERTY_THREADS, DEFAULT_THREADS);
+        if (threads > 1) {
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("protect-paths-%d").build());
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs the tasks and waits for them to complete
+     *
+     * @param tasks the tasks to run
+     * @return the results of the tasks, in the order of the tasks
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+
+        if (executor == null || tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (final Callable<T> task : tasks) {
+                futures.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        // Pool threads don't inherit the pushing user's permissions
+                        return securityService.withPermission(Permission.REPO_READ, "Protect paths validation")
+                                .call(new UncheckedOperation<T>() {
+                                    @Override
+                                    public T perform() {
+                                        return ValidationExecutor.call(task);
+                                    }
+                                });
+                    }
+                }));
+            }
+
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while validating changesets", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Shuts the pool down, interrupting running tasks
+     */
+    @Override
+    public void destroy() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.sgillespie.hook;
+
+/**
+ * How the changes of a push are found
+ */
+public enum ValidationMode {
+    /** Every new changeset is validated, so a protected path changed and reverted within the push is rejected */
+    COMMITS,
+    /** Only the difference between the old and new tips is validated, with a single diff per ref */
+    NET_DIFF
+}
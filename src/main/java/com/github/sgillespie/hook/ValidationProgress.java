@@ -0,0 +1,97 @@
+package com.github.sgillespie.hook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the violations found while validating a push or pull request, so scanning can stop as soon as the maximum
+ * number of violations has been found or the time budget runs out. Shared by every validation task of a push.
+ */
+public class ValidationProgress {
+    private final int maxViolations;
+    private final long timeoutNanos;
+    private final long startNanos = System.nanoTime();
+    private final Set<String> violatingPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean incomplete;
+
+    /**
+     * @param maxViolations the number of violating paths after which validation stops, or 0 to find all
+     */
+    public ValidationProgress(int maxViolations) {
+        this(maxViolations, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxViolations the number of violating paths after which validation stops, or 0 to find all
+     * @param timeout the time after which validation stops, or 0 to never time out
+     * @param unit the unit of the timeout
+     */
+    public ValidationProgress(int maxViolations, long timeout, TimeUnit unit) {
+        this.maxViolations = maxViolations;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Records a changed path matching protected path patterns
+     *
+     * @param path the violating path
+     */
+    public void addViolation(String path) {
+        violatingPaths.add(path);
+    }
+
+    /**
+     * Returns true if no further changesets need to be scanned
+     */
+    public boolean isStopped() {
+        return (maxViolations > 0 && violatingPaths.size() >= maxViolations) || isTimedOut();
+    }
+
+    /**
+     * Returns true if the time budget has run out
+     */
+    public boolean isTimedOut() {
+        return timeoutNanos > 0 && System.nanoTime() - startNanos >= timeoutNanos;
+    }
+
+    /**
+     * Records that scanning stopped before every changeset or path was scanned
+     */
+    public void markIncomplete() {
+        incomplete = true;
+    }
+
+    /**
+     * Returns true if scanning stopped before every changeset or path was scanned. A validation that finished just as
+     * the time budget ran out is complete.
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * Returns true if any violations have been found
+     */
+    public boolean hasViolations() {
+        return !violatingPaths.isEmpty();
+    }
+
+    /**
+     * Limits the errors to the maximum number of violations, summarizing the rest
+     *
+     * @param errors the errors of the validation
+     * @return at most the maximum number of errors, followed by the number of omitted errors. Validation stops at
+     * the maximum, so the omitted errors are a lower bound of the unchecked rest.
+     */
+    public List<String> summarize(List<String> errors) {
+        if (maxViolations <= 0 || errors.size() <= maxViolations) return errors;
+
+        List<String> summary = new ArrayList<>(errors.subList(0, maxViolations));
+        summary.add(String.format("...and at least %d more", errors.size() - maxViolations));
+        return summary;
+    }
+}
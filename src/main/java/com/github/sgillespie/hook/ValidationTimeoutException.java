@@ -0,0 +1,20 @@
+package com.github.sgillespie.hook;
+
+/**
+ * Thrown when validation runs out of time before finding any violations
+ */
+public class ValidationTimeoutException extends RuntimeException {
+    private final TimeoutAction timeoutAction;
+
+    public ValidationTimeoutException(String message, TimeoutAction timeoutAction) {
+        super(message);
+        this.timeoutAction = timeoutAction;
+    }
+
+    /**
+     * Returns the configured outcome of timed out validations
+     */
+    public TimeoutAction getTimeoutAction() {
+        return timeoutAction;
+    }
+}
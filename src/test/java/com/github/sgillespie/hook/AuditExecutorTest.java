@@ -0,0 +1,126 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.EscalatedSecurityContext;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.Operation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AuditExecutorTest {
+    @Mock
+    private ApplicationPropertiesService applicationPropertiesService;
+    @Mock
+    private SecurityService securityService;
+    @Mock
+    private EscalatedSecurityContext escalatedSecurityContext;
+    @Mock
+    private ProtectPathsMetrics metrics;
+    @Mock
+    private StashUser user;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        MockitoAnnotations.initMocks(this);
+
+        when(securityService.impersonating((StashUser) anyObject(), anyString()))
+                .thenReturn(escalatedSecurityContext);
+        when(securityService.withPermission((Permission) anyObject(), anyString()))
+                .thenReturn(escalatedSecurityContext);
+        when(escalatedSecurityContext.call((Operation<Object, Throwable>) anyObject())).thenAnswer(
+                new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        return ((Operation<?, ?>) invocation.getArguments()[0]).perform();
+                    }
+                });
+    }
+
+    @Test
+    public void auditShouldRunAsUser() throws Exception {
+        AuditExecutor executor = createExecutor(10);
+        CountDownLatch done = new CountDownLatch(1);
+
+        assertThat(executor.submit(user, countDown(done)), is(true));
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        verify(securityService).impersonating(eq(user), anyString());
+        verify(metrics, never()).recordAuditDrop();
+    }
+
+    @Test
+    public void fullQueueShouldDropAudits() throws Exception {
+        AuditExecutor executor = createExecutor(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // One audit runs, one waits in the queue, and the rest are dropped
+        assertThat(executor.submit(user, block(started, release)), is(true));
+        assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(executor.submit(user, countDown(new CountDownLatch(1))), is(true));
+        assertThat(executor.submit(user, countDown(new CountDownLatch(1))), is(false));
+        assertThat(executor.submit(user, countDown(new CountDownLatch(1))), is(false));
+        assertThat(executor.getQueueSize(), is(1));
+        verify(metrics, times(2)).recordAuditDrop();
+
+        release.countDown();
+    }
+
+    @Test
+    public void destroyedExecutorShouldDropAudits() {
+        AuditExecutor executor = createExecutor(10);
+        executor.destroy();
+
+        assertThat(executor.submit(user, countDown(new CountDownLatch(1))), is(false));
+        verify(metrics).recordAuditDrop();
+    }
+
+    private AuditExecutor createExecutor(int queueSize) {
+        when(applicationPropertiesService.getPluginProperty(eq(AuditExecutor.PROPERTY_QUEUE_SIZE), anyInt()))
+                .thenReturn(queueSize);
+        return new AuditExecutor(applicationPropertiesService, securityService, metrics);
+    }
+
+    private Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private Runnable block(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
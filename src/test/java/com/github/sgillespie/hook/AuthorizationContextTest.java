@@ -0,0 +1,75 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.StashUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AuthorizationContextTest {
+    @Mock
+    private PermissionService permissionService;
+    @Mock
+    private GroupMembershipCache groupMembershipCache;
+    @Mock
+    private Repository repository;
+    @Mock
+    private StashUser user;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(user.getName()).thenReturn("user");
+    }
+
+    @Test
+    public void excludedUserShouldNotQueryPermissions() {
+        AuthorizationContext context = context(asList("user"), Collections.<String>emptyList());
+
+        assertThat(context.isExcluded(), is(true));
+        verify(permissionService, never()).hasRepositoryPermission(repository, Permission.REPO_ADMIN);
+    }
+
+    @Test
+    public void excludedGroupMemberShouldNotQueryPermissions() {
+        when(groupMembershipCache.isUserInAnyGroup(user, Collections.singleton("group"))).thenReturn(true);
+        AuthorizationContext context = context(Collections.<String>emptyList(), asList("group"));
+
+        assertThat(context.isExcluded(), is(true));
+        verify(permissionService, never()).hasRepositoryPermission(repository, Permission.REPO_ADMIN);
+    }
+
+    @Test
+    public void adminShouldBeExcluded() {
+        when(permissionService.hasRepositoryPermission(repository, Permission.REPO_ADMIN)).thenReturn(true);
+
+        assertThat(context(Collections.<String>emptyList(), Collections.<String>emptyList()).isExcluded(),
+                is(true));
+    }
+
+    @Test
+    public void otherUserShouldNotBeExcluded() {
+        assertThat(context(Collections.<String>emptyList(), Collections.<String>emptyList()).isExcluded(),
+                is(false));
+    }
+
+    private AuthorizationContext context(Collection<String> excludedUsers, Collection<String> excludedGroups) {
+        ProtectPathsSettings settings = new ProtectPathsSettings(new PathPatternMatcher(asList("x/y/z")),
+                FilterType.ALL, Collections.<String>emptyList(), excludedUsers, excludedGroups, 0, 0,
+                TimeoutAction.REJECT, ValidationMode.COMMITS, "FINGERPRINT");
+        return new AuthorizationContext(permissionService, groupMembershipCache, settings, repository, user);
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+public class ChangesetResultCacheTest {
+    private ChangesetResultCache changesetResultCache;
+    private PathPatternMatcher pathMatcher;
+    private Map<String, List<String>> matches;
+
+    @Mock
+    private ApplicationPropertiesService applicationPropertiesService;
+    @Mock
+    private Repository repository;
+    @Mock
+    private Repository otherRepository;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(applicationPropertiesService.getPluginProperty(eq(ChangesetResultCache.PROPERTY_SIZE), anyInt()))
+                .thenReturn(100);
+        when(repository.getId()).thenReturn(1);
+        when(otherRepository.getId()).thenReturn(2);
+
+        changesetResultCache = new ChangesetResultCache(applicationPropertiesService);
+        pathMatcher = new PathPatternMatcher(asList("x/y/z"));
+        matches = ImmutableMap.<String, List<String>>of("x/y/z", asList("x/y/z"));
+    }
+
+    @Test
+    public void uncachedChangesetShouldReturnNull() {
+        assertThat(changesetResultCache.get(repository, pathMatcher, "CHANGESET-1"), nullValue());
+    }
+
+    @Test
+    public void cachedChangesetShouldReturnMatches() {
+        changesetResultCache.put(repository, pathMatcher, "CHANGESET-1", matches);
+        assertThat(changesetResultCache.get(repository, pathMatcher, "CHANGESET-1"), equalTo(matches));
+    }
+
+    @Test
+    public void cachedChangesetShouldNotBeSharedBetweenRepositories() {
+        changesetResultCache.put(repository, pathMatcher, "CHANGESET-1", matches);
+        assertThat(changesetResultCache.get(otherRepository, pathMatcher, "CHANGESET-1"), nullValue());
+    }
+
+    @Test
+    public void changedPatternsShouldNotShareMatches() {
+        PathPatternMatcher otherPathMatcher = new PathPatternMatcher(asList("z/y/x"));
+        Map<String, List<String>> otherMatches = ImmutableMap.<String, List<String>>of();
+
+        changesetResultCache.put(repository, pathMatcher, "CHANGESET-1", matches);
+        assertThat(changesetResultCache.get(repository, otherPathMatcher, "CHANGESET-1"), nullValue());
+
+        // Hooks with different patterns, like the audit and protect paths hooks, keep each other's matches
+        changesetResultCache.put(repository, otherPathMatcher, "CHANGESET-1", otherMatches);
+        assertThat(changesetResultCache.get(repository, pathMatcher, "CHANGESET-1"), equalTo(matches));
+        assertThat(changesetResultCache.get(repository, otherPathMatcher, "CHANGESET-1"), equalTo(otherMatches));
+    }
+
+    @Test
+    public void zeroSizeShouldDisableCache() {
+        when(applicationPropertiesService.getPluginProperty(eq(ChangesetResultCache.PROPERTY_SIZE), anyInt()))
+                .thenReturn(0);
+        changesetResultCache = new ChangesetResultCache(applicationPropertiesService);
+
+        changesetResultCache.put(repository, pathMatcher, "CHANGESET-1", matches);
+        assertThat(changesetResultCache.get(repository, pathMatcher, "CHANGESET-1"), nullValue());
+    }
+}
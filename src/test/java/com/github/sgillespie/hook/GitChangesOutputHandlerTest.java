@@ -0,0 +1,219 @@
+package com.github.sgillespie.hook;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the git log command of {@link GitChangesOutputHandler} against a local bare repository
+ */
+public class GitChangesOutputHandlerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File work;
+    private File bare;
+    private String root;
+    private String feature;
+    private String rename;
+    private String merge;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(isGitInstalled());
+
+        // root <- rename <- merge, and root <- feature <- merge
+        work = folder.newFolder("work");
+        git(work, "init", "-q");
+        write("a.txt");
+        write("x/y/z");
+        git(work, "add", ".");
+        root = commit("root");
+
+        git(work, "checkout", "-q", "-b", "feature");
+        write("feature.txt");
+        git(work, "add", ".");
+        feature = commit("feature");
+
+        git(work, "checkout", "-q", "-");
+        git(work, "mv", "x/y/z", "x/y/w");
+        rename = commit("rename");
+
+        git(work, "merge", "-q", "--no-ff", "-m", "merge", "feature");
+        merge = git(work, "rev-parse", "HEAD").trim();
+
+        bare = new File(folder.getRoot(), "bare.git");
+        git(folder.getRoot(), "clone", "-q", "--bare", work.getPath(), bare.getPath());
+    }
+
+    @Test
+    public void changedPathsShouldBeListedByChangeset() throws Exception {
+        Recorder recorder = new Recorder();
+        log(asList(root), null, recorder);
+
+        assertThat(recorder.changes, equalTo((Map<String, List<String>>) ImmutableMap.of(
+                merge, Collections.<String>emptyList(),
+                rename, asList("x/y/w"),
+                feature, asList("feature.txt"))));
+    }
+
+    @Test
+    public void parentsShouldBeListedFirstParentFirst() throws Exception {
+        Recorder recorder = new Recorder();
+        log(Collections.<String>emptyList(), null, recorder);
+
+        assertThat(recorder.parents, equalTo((Map<String, List<String>>) ImmutableMap.of(
+                merge, asList(rename, feature),
+                rename, asList(root),
+                feature, asList(root),
+                root, Collections.<String>emptyList())));
+        assertThat(recorder.changes.get(root), equalTo(asList("a.txt", "x/y/z")));
+    }
+
+    @Test
+    public void changedPathsShouldBeFilteredByPath() throws Exception {
+        Recorder recorder = new Recorder();
+        log(asList(root), asList("x/y"), recorder);
+
+        assertThat(recorder.changes, equalTo((Map<String, List<String>>) ImmutableMap.of(
+                rename, asList("x/y/w"))));
+    }
+
+    @Test
+    public void excludedHistoryShouldNotBeListed() throws Exception {
+        Recorder recorder = new Recorder();
+        log(asList(rename, feature), null, recorder);
+
+        assertThat(recorder.changes, equalTo((Map<String, List<String>>) ImmutableMap.of(
+                merge, Collections.<String>emptyList())));
+    }
+
+    @Test
+    public void excludesBeyondCommandLineLimitShouldNotBeListed() throws Exception {
+        // Far more excludes than fit on a command line, like the branch tips of a large repository
+        List<String> excludes = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) excludes.addAll(asList(rename, feature));
+
+        Recorder recorder = new Recorder();
+        log(excludes, null, recorder);
+
+        assertThat(recorder.changes, equalTo((Map<String, List<String>>) ImmutableMap.of(
+                merge, Collections.<String>emptyList())));
+    }
+
+    @Test
+    public void skippedChangesetShouldNotListPaths() throws Exception {
+        Recorder recorder = new Recorder();
+        recorder.skipped = rename;
+        log(asList(root), null, recorder);
+
+        assertThat(recorder.changes.get(rename), equalTo(Collections.<String>emptyList()));
+        assertThat(recorder.changes.get(feature), equalTo(asList("feature.txt")));
+    }
+
+    @Test
+    public void stoppedCallbackShouldCancel() throws Exception {
+        Recorder recorder = new Recorder();
+        recorder.maxChangesets = 1;
+        GitChangesOutputHandler handler = log(asList(root), null, recorder);
+
+        assertThat(recorder.changes.size(), is(1));
+        assertThat(handler.isCanceled(), is(true));
+    }
+
+    private GitChangesOutputHandler log(Collection<String> excludes, Collection<String> paths, Recorder recorder)
+            throws Exception {
+        List<String> command = new ArrayList<>(asList("git", "--git-dir", bare.getPath(), "log"));
+        command.addAll(GitChangesOutputHandler.arguments(paths));
+
+        Process process = new ProcessBuilder(command).start();
+        GitChangesOutputHandler handler = new GitChangesOutputHandler(recorder);
+        try {
+            new GitRevisionsInputHandler(merge, excludes).process(process.getOutputStream());
+            handler.process(process.getInputStream());
+        } finally {
+            process.destroy();
+        }
+        return handler;
+    }
+
+    private void write(String path) throws IOException {
+        File file = new File(work, path);
+        Files.createParentDirs(file);
+        Files.write(path, file, Charsets.UTF_8);
+    }
+
+    private String commit(String message) throws Exception {
+        git(work, "commit", "-q", "-m", message);
+        return git(work, "rev-parse", "HEAD").trim();
+    }
+
+    private static boolean isGitInstalled() {
+        try {
+            return new ProcessBuilder("git", "--version").start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String git(File directory, String... arguments) throws Exception {
+        List<String> command = new ArrayList<>(asList("git", "-c", "user.name=test", "-c", "user.email=test@test",
+                "-c", "commit.gpgsign=false"));
+        command.addAll(Arrays.asList(arguments));
+
+        Process process = new ProcessBuilder(command)
+                .directory(directory)
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(ByteStreams.toByteArray(process.getInputStream()), Charsets.UTF_8);
+        if (process.waitFor() != 0) throw new IOException(command + " failed: " + output);
+        return output;
+    }
+
+    private static class Recorder implements GitChangesOutputHandler.Callback {
+        private final Map<String, List<String>> changes = new LinkedHashMap<>();
+        private final Map<String, List<String>> parents = new LinkedHashMap<>();
+        private List<String> current;
+        private String skipped;
+        private int maxChangesets = Integer.MAX_VALUE;
+
+        @Override
+        public boolean startChangeset(String changesetId, List<String> parentIds) {
+            current = new ArrayList<>();
+            changes.put(changesetId, current);
+            parents.put(changesetId, parentIds);
+            return !changesetId.equals(skipped);
+        }
+
+        @Override
+        public void change(String path) {
+            current.add(path);
+        }
+
+        @Override
+        public boolean isStopped() {
+            return changes.size() >= maxChangesets;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GlobMatcherTest {
+    @Test
+    public void starShouldMatchWithinComponent() {
+        GlobMatcher matcher = new GlobMatcher("x/*.yml");
+        assertThat(matcher.matches("x/a.yml"), is(true));
+        assertThat(matcher.matches("x/.yml"), is(true));
+        assertThat(matcher.matches("x/y/a.yml"), is(false));
+    }
+
+    @Test
+    public void doubleStarShouldMatchAcrossComponents() {
+        GlobMatcher matcher = new GlobMatcher("x/**");
+        assertThat(matcher.matches("x/y/z"), is(true));
+        assertThat(matcher.matches("x/"), is(true));
+        assertThat(matcher.matches("y/z"), is(false));
+    }
+
+    @Test
+    public void doubleStarSlashShouldMatchAnyDirectories() {
+        GlobMatcher matcher = new GlobMatcher("src/**/secrets/*.yml");
+        assertThat(matcher.matches("src/secrets/db.yml"), is(true));
+        assertThat(matcher.matches("src/a/b/secrets/db.yml"), is(true));
+        assertThat(matcher.matches("src/asecrets/db.yml"), is(false));
+        assertThat(matcher.matches("src/secrets/a/db.yml"), is(false));
+    }
+
+    @Test
+    public void questionMarkShouldMatchSingleCharacter() {
+        GlobMatcher matcher = new GlobMatcher("x?z");
+        assertThat(matcher.matches("xyz"), is(true));
+        assertThat(matcher.matches("xz"), is(false));
+        assertThat(matcher.matches("x/z"), is(false));
+    }
+
+    @Test
+    public void characterClassShouldMatchMembers() {
+        GlobMatcher matcher = new GlobMatcher("v[0-9a].[!x]");
+        assertThat(matcher.matches("v1.y"), is(true));
+        assertThat(matcher.matches("va.y"), is(true));
+        assertThat(matcher.matches("vb.y"), is(false));
+        assertThat(matcher.matches("v1.x"), is(false));
+        assertThat(matcher.matches("v1./"), is(false));
+    }
+
+    @Test
+    public void escapedWildcardShouldMatchLiterally() {
+        GlobMatcher matcher = new GlobMatcher("x\\*");
+        assertThat(matcher.matches("x*"), is(true));
+        assertThat(matcher.matches("xy"), is(false));
+    }
+
+    @Test
+    public void longGlobShouldMatch() {
+        StringBuilder glob = new StringBuilder();
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            glob.append("a*");
+            path.append("ab");
+        }
+
+        assertThat(new GlobMatcher(glob + "/**/c").matches(path + "/x/y/c"), is(true));
+        assertThat(new GlobMatcher(glob + "/**/c").matches(path + "/x/y/d"), is(false));
+    }
+
+    @Test
+    public void pathologicalGlobShouldNotBacktrack() {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            path.append('a');
+        }
+
+        assertThat(new GlobMatcher("a*a*a*a*a*a*a*a*a*a*b").matches(path.toString()), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedClassShouldThrow() {
+        new GlobMatcher("x/[ab");
+    }
+}
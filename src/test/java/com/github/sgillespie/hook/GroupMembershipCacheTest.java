@@ -0,0 +1,79 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GroupMembershipCacheTest {
+    private GroupMembershipCache groupMembershipCache;
+
+    @Mock
+    private UserService userService;
+    @Mock
+    private ApplicationPropertiesService applicationPropertiesService;
+    @Mock
+    private StashUser user;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(user.getName()).thenReturn("user");
+        when(userService.isUserInGroup(user, "group1")).thenReturn(false);
+        when(userService.isUserInGroup(user, "group2")).thenReturn(true);
+        when(applicationPropertiesService.getPluginProperty(eq(GroupMembershipCache.PROPERTY_TTL), anyInt()))
+                .thenReturn(GroupMembershipCache.DEFAULT_TTL);
+
+        groupMembershipCache = new GroupMembershipCache(userService, applicationPropertiesService);
+    }
+
+    @Test
+    public void userInAnyGroupShouldBeMember() {
+        assertThat(groupMembershipCache.isUserInAnyGroup(user, asList("group1", "group2")), is(true));
+        assertThat(groupMembershipCache.isUserInAnyGroup(user, asList("group1")), is(false));
+        assertThat(groupMembershipCache.isUserInAnyGroup(user, Collections.<String>emptyList()), is(false));
+    }
+
+    @Test
+    public void membershipShouldBeLookedUpOnce() {
+        groupMembershipCache.isUserInGroup(user, "group2");
+        groupMembershipCache.isUserInGroup(user, "group2");
+
+        verify(userService, times(1)).isUserInGroup(user, "group2");
+    }
+
+    @Test
+    public void groupsAfterMatchingGroupShouldNotBeLookedUp() {
+        groupMembershipCache.isUserInAnyGroup(user, asList("group2", "group3"));
+
+        verify(userService, never()).isUserInGroup(user, "group3");
+    }
+
+    @Test
+    public void zeroTtlShouldDisableCache() {
+        when(applicationPropertiesService.getPluginProperty(eq(GroupMembershipCache.PROPERTY_TTL), anyInt()))
+                .thenReturn(0);
+        groupMembershipCache = new GroupMembershipCache(userService, applicationPropertiesService);
+
+        groupMembershipCache.isUserInGroup(user, "group2");
+        groupMembershipCache.isUserInGroup(user, "group2");
+
+        verify(userService, times(2)).isUserInGroup(user, "group2");
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.io.SingleLineOutputHandler;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.scm.Command;
+import com.atlassian.stash.scm.CommandFailedException;
+import com.atlassian.stash.scm.ScmCommandBuilder;
+import com.atlassian.stash.scm.ScmService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class MergeBaseResolverTest {
+    private MergeBaseResolver mergeBaseResolver;
+
+    @Mock
+    private ScmService scmService;
+    @Mock
+    private ScmCommandBuilder builder;
+    @Mock
+    private Command<String> command;
+    @Mock
+    private Repository repository;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        initMocks(this);
+
+        when(scmService.createBuilder(repository)).thenReturn(builder);
+        when(builder.command(anyString())).thenReturn(builder);
+        when(builder.argument(anyString())).thenReturn(builder);
+        when(builder.build(any(SingleLineOutputHandler.class))).thenReturn(command);
+
+        mergeBaseResolver = new MergeBaseResolver(scmService);
+    }
+
+    @Test
+    public void mergeBaseShouldBeReturned() {
+        when(command.call()).thenReturn("MERGE-BASE\n");
+
+        assertThat(mergeBaseResolver.findMergeBase(repository, "TO-HASH", "FROM-HASH"), equalTo("MERGE-BASE"));
+        verify(builder).command("merge-base");
+        verify(builder).argument("TO-HASH");
+        verify(builder).argument("FROM-HASH");
+    }
+
+    @Test
+    public void unrelatedChangesetsShouldHaveNoMergeBase() {
+        when(command.call()).thenThrow(mock(CommandFailedException.class));
+
+        assertThat(mergeBaseResolver.findMergeBase(repository, "TO-HASH", "FROM-HASH"), nullValue());
+    }
+}
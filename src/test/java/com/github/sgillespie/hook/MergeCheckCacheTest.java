@@ -0,0 +1,67 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.StashUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+public class MergeCheckCacheTest {
+    private MergeCheckCache mergeCheckCache;
+
+    @Mock
+    private ApplicationPropertiesService applicationPropertiesService;
+    @Mock
+    private Repository repository;
+    @Mock
+    private StashUser user;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(user.getName()).thenReturn("user");
+
+        when(applicationPropertiesService.getPluginProperty(eq(MergeCheckCache.PROPERTY_SIZE), anyInt()))
+                .thenReturn(100);
+        mergeCheckCache = new MergeCheckCache(applicationPropertiesService);
+    }
+
+    @Test
+    public void cachedMergeCheckShouldReturnErrors() {
+        mergeCheckCache.put(key("TO-HASH"), asList("error!"));
+        assertThat(mergeCheckCache.get(key("TO-HASH")), equalTo(asList("error!")));
+    }
+
+    @Test
+    public void movedRefShouldNotReturnErrors() {
+        mergeCheckCache.put(key("TO-HASH"), asList("error!"));
+        assertThat(mergeCheckCache.get(key("NEW-HASH")), nullValue());
+    }
+
+    @Test
+    public void cachedExclusionShouldBeReturned() {
+        mergeCheckCache.putExclusion(repository, user, "FINGERPRINT", true);
+        assertThat(mergeCheckCache.getExclusion(repository, user, "FINGERPRINT"), is(true));
+    }
+
+    @Test
+    public void changedSettingsShouldNotReturnExclusion() {
+        mergeCheckCache.putExclusion(repository, user, "FINGERPRINT", true);
+        assertThat(mergeCheckCache.getExclusion(repository, user, "NEW-FINGERPRINT"), nullValue());
+    }
+
+    private MergeCheckCache.Key key(String toHash) {
+        return new MergeCheckCache.Key(repository, "refs/heads/master", "FROM-HASH", toHash, "FINGERPRINT");
+    }
+}
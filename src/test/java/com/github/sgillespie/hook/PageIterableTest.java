@@ -0,0 +1,79 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageImpl;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PageIterableTest {
+    private static final PageRequest FIRST_PAGE = new PageRequestImpl(0, 2);
+
+    @Test
+    public void singlePageShouldReturnAllValues() {
+        TestPageIterable iterable = new TestPageIterable(asList("a", "b"));
+
+        assertThat(Lists.newArrayList(iterable), equalTo(asList("a", "b")));
+        assertThat(iterable.requests.size(), equalTo(1));
+    }
+
+    @Test
+    public void multiplePagesShouldReturnAllValues() {
+        TestPageIterable iterable = new TestPageIterable(asList("a", "b", "c", "d", "e"));
+
+        assertThat(Lists.newArrayList(iterable), equalTo(asList("a", "b", "c", "d", "e")));
+        assertThat(iterable.requests.size(), equalTo(3));
+    }
+
+    @Test
+    public void emptyPageShouldReturnNoValues() {
+        assertThat(Lists.newArrayList(new TestPageIterable(new ArrayList<String>())), empty());
+    }
+
+    @Test
+    public void firstPageShouldNotBeFetched() {
+        final List<String> values = asList("a", "b", "c");
+        final List<PageRequest> requests = new ArrayList<>();
+        Page<String> firstPage = new PageImpl<>(FIRST_PAGE, 2, values.subList(0, 2), false);
+
+        PageIterable<String> iterable = new PageIterable<String>(firstPage) {
+            @Override
+            protected Page<? extends String> fetchPage(PageRequest pageRequest) {
+                requests.add(pageRequest);
+                return new PageImpl<>(pageRequest, 1, values.subList(2, 3), true);
+            }
+        };
+
+        assertThat(Lists.newArrayList(iterable), equalTo(values));
+        assertThat(requests.size(), equalTo(1));
+        assertThat(requests.get(0).getStart(), equalTo(2));
+    }
+
+    private static class TestPageIterable extends PageIterable<String> {
+        private final List<String> values;
+        private final List<PageRequest> requests = new ArrayList<>();
+
+        public TestPageIterable(List<String> values) {
+            super(FIRST_PAGE);
+            this.values = values;
+        }
+
+        @Override
+        protected Page<? extends String> fetchPage(PageRequest pageRequest) {
+            requests.add(pageRequest);
+
+            int end = Math.min(values.size(), pageRequest.getStart() + pageRequest.getLimit());
+            List<String> page = values.subList(pageRequest.getStart(), end);
+            return new PageImpl<>(pageRequest, page.size(), page, end == values.size());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PathPatternMatcherTest {
+    @Test
+    public void unmatchedPathShouldReturnEmptyList() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("x/y/z", "z/y/x"));
+        assertThat(matcher.match("a/b/c"), empty());
+    }
+
+    @Test
+    public void matchedPathShouldReturnPattern() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("x/y/z", "z/y/x"));
+        assertThat(matcher.match("z/y/x"), equalTo(asList("z/y/x")));
+    }
+
+    @Test
+    public void pathMatchingMultiplePatternsShouldReturnAllPatterns() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("x/.*", "a/b", "x/y/z"));
+        assertThat(matcher.match("x/y/z"), equalTo(asList("x/.*", "x/y/z")));
+    }
+
+    @Test
+    public void partialMatchShouldNotMatch() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("x/y"));
+        assertThat(matcher.match("x/y/z"), empty());
+    }
+
+    @Test
+    public void patternsWithGroupsShouldMatchIndependently() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("(a|b)/c", "(x)/(y)/z"));
+        assertThat(matcher.match("x/y/z"), equalTo(asList("(x)/(y)/z")));
+    }
+
+    @Test
+    public void patternsWithSameNamedGroupShouldMatch() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("(?<v>a)/x", "(?<v>b)/y", "(?<!c)d/.+"));
+        assertThat(matcher.match("a/x"), equalTo(asList("(?<v>a)/x")));
+        assertThat(matcher.match("b/y"), equalTo(asList("(?<v>b)/y")));
+        assertThat(matcher.match("d/z"), equalTo(asList("(?<!c)d/.+")));
+        assertThat(matcher.match("a/y"), empty());
+    }
+
+    @Test
+    public void patternWithBackReferenceShouldMatch() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("a/b", "(x)/\\1"));
+        assertThat(matcher.match("x/x"), equalTo(asList("(x)/\\1")));
+        assertThat(matcher.match("x/y"), empty());
+    }
+
+    @Test
+    public void literalPrefixShouldMatchPathsBeneath() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("x/.*"));
+        assertThat(matcher.match("x/y/z"), equalTo(asList("x/.*")));
+        assertThat(matcher.match("x"), empty());
+        assertThat(matcher.match("xy/z"), empty());
+    }
+
+    @Test
+    public void escapedLiteralShouldMatchOnlyLiteralPath() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("a\\.b/.*", "c\\.d"));
+        assertThat(matcher.match("a.b/c"), equalTo(asList("a\\.b/.*")));
+        assertThat(matcher.match("aXb/c"), empty());
+        assertThat(matcher.match("c.d"), equalTo(asList("c\\.d")));
+        assertThat(matcher.match("cXd"), empty());
+    }
+
+    @Test
+    public void globSyntaxShouldMatchGlobs() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("src/**/secrets/*.yml", "*.key"), PathSyntax.GLOB);
+        assertThat(matcher.match("src/secrets/db.yml"), equalTo(asList("src/**/secrets/*.yml")));
+        assertThat(matcher.match("src/main/secrets/db.yml"), equalTo(asList("src/**/secrets/*.yml")));
+        assertThat(matcher.match("src/main/secrets/db/x.yml"), empty());
+        assertThat(matcher.match("id.key"), equalTo(asList("*.key")));
+        assertThat(matcher.match("a/id.key"), empty());
+    }
+
+    @Test
+    public void literalGlobsShouldMatchLiterally() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("a.b", "x/**"), PathSyntax.GLOB);
+        assertThat(matcher.match("a.b"), equalTo(asList("a.b")));
+        assertThat(matcher.match("aXb"), empty());
+        assertThat(matcher.match("x/y/z"), equalTo(asList("x/**")));
+        assertThat(matcher.match("xy/z"), empty());
+    }
+
+    @Test
+    public void globWithAlternativesShouldMatch() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("**/*.{yml,json}"), PathSyntax.GLOB);
+        assertThat(matcher.match("a/b.json"), equalTo(asList("**/*.{yml,json}")));
+        assertThat(matcher.match("a/b.xml"), empty());
+    }
+
+    @Test
+    public void prefixShouldOverrideDefaultSyntax() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("glob:x/*", "regex:y/.*"), PathSyntax.REGEX);
+        assertThat(matcher.match("x/z"), equalTo(asList("glob:x/*")));
+        assertThat(matcher.match("y/z/w"), equalTo(asList("regex:y/.*")));
+
+        matcher = new PathPatternMatcher(asList("regex:x/.*", "y/*"), PathSyntax.GLOB);
+        assertThat(matcher.match("x/z/w"), equalTo(asList("regex:x/.*")));
+        assertThat(matcher.match("y/z"), equalTo(asList("y/*")));
+    }
+
+    @Test
+    public void differentSyntaxShouldHaveDifferentFingerprint() {
+        PathPatternMatcher regex = new PathPatternMatcher(asList("x/*"), PathSyntax.REGEX);
+        PathPatternMatcher glob = new PathPatternMatcher(asList("x/*"), PathSyntax.GLOB);
+        assertThat(regex.getFingerprint().equals(glob.getFingerprint()), is(false));
+    }
+
+    @Test
+    public void literalPatternsShouldHaveLiteralPaths() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList("x/y/z", "a\\.b/.*", "glob:c/**"));
+        assertThat(matcher.getLiteralPaths(), equalTo(asList("x/y/z", "a.b", "c")));
+    }
+
+    @Test
+    public void regexPatternsShouldHaveNoLiteralPaths() {
+        assertThat(new PathPatternMatcher(asList("x/y/z", ".*/z")).getLiteralPaths(), nullValue());
+        assertThat(new PathPatternMatcher(asList("x/y/z", "glob:*.yml")).getLiteralPaths(), nullValue());
+    }
+
+    @Test
+    public void literalAndRegexMatchesShouldBeReportedInPatternOrder() {
+        PathPatternMatcher matcher = new PathPatternMatcher(asList(".*/z", "x/y/z", "x/[a-z]/z", "x/.*"));
+        assertThat(matcher.match("x/y/z"), equalTo(asList(".*/z", "x/y/z", "x/[a-z]/z", "x/.*")));
+    }
+}
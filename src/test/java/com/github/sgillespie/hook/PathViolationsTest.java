@@ -0,0 +1,31 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PathViolationsTest {
+    @Test
+    public void noViolationsShouldReturnNoErrors() {
+        PathViolations violations = new PathViolations();
+        assertThat(violations.isEmpty(), is(true));
+        assertThat(violations.getErrors("refs/heads/master"), empty());
+    }
+
+    @Test
+    public void violationsShouldBeGroupedByPath() {
+        PathViolations violations = new PathViolations();
+        violations.add("CHANGESET-1", "x/y/z", asList("x/.*", "x/y/z"));
+        violations.add("CHANGESET-1", "x/a", asList("x/.*"));
+        violations.add("CHANGESET-2", "x/y/z", asList("x/.*", "x/y/z"));
+        violations.add("CHANGESET-2", "x/y/z", asList("x/.*", "x/y/z"));
+
+        assertThat(violations.getErrors("refs/heads/master"), equalTo(asList(
+                "refs/heads/master: x/y/z matches restricted path x/.*, x/y/z in CHANGESET-1, CHANGESET-2",
+                "refs/heads/master: x/a matches restricted path x/.* in CHANGESET-1")));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PatternsTest {
+    @Test
+    public void unescapeLiteralShouldReturnLiteral() {
+        assertThat(Patterns.unescapeLiteral("x/y/z"), equalTo("x/y/z"));
+        assertThat(Patterns.unescapeLiteral("x/y\\.z"), equalTo("x/y.z"));
+    }
+
+    @Test
+    public void unescapeLiteralWithRegexShouldReturnNull() {
+        assertThat(Patterns.unescapeLiteral("x/.*"), is(nullValue()));
+        assertThat(Patterns.unescapeLiteral("x/\\d"), is(nullValue()));
+    }
+
+    @Test
+    public void unescapeGlobLiteralShouldReturnLiteral() {
+        assertThat(Patterns.unescapeGlobLiteral("x/y.z"), equalTo("x/y.z"));
+        assertThat(Patterns.unescapeGlobLiteral("x/\\*"), equalTo("x/*"));
+        assertThat(Patterns.unescapeGlobLiteral("x/*.z"), is(nullValue()));
+    }
+
+    @Test
+    public void hasAlternativesShouldIgnoreEscapedBraces() {
+        assertThat(Patterns.hasAlternatives("x/{a,b}"), is(true));
+        assertThat(Patterns.hasAlternatives("x/\\{a,b\\}"), is(false));
+    }
+
+    @Test
+    public void globToRegexShouldTranslateWildcards() {
+        assertThat(Patterns.globToRegex("a/*.txt"), equalTo("a/[^/]*\\.txt"));
+        assertThat(Patterns.globToRegex("a/**"), equalTo("a/.*"));
+        assertThat(Patterns.globToRegex("**/a"), equalTo("(?:.*/)?a"));
+        assertThat(Patterns.globToRegex("a?"), equalTo("a[^/]"));
+    }
+
+    @Test
+    public void globToRegexShouldTranslateClassesAndAlternatives() {
+        assertThat(Patterns.globToRegex("[!a-c]"), equalTo("[^/a-c]"));
+        assertThat(Patterns.globToRegex("[a-c]"), equalTo("[a-c&&[^/]]"));
+        assertThat(Patterns.globToRegex("*.{xml,json}"), equalTo("[^/]*\\.(?:xml|json)"));
+        assertThat(Patterns.globToRegex("a,b"), equalTo("a,b"));
+    }
+
+    @Test
+    public void globToRegexShouldMatchLikeGlobMatcher() {
+        String[] globs = {"a/*", "a/**", "**/b", "a/**/b", "a?b", "a[xy]b", "a[!x]b", "a[^x-z]b", "a[.-0]b",
+                "a[!]]b", "a[\\-x]b", "a[\\w]b", "a\\*b"};
+        String[] paths = {"a", "a/b", "a//b", "a/x/b", "a/xb", "axb", "ayb", "azb", "a-b", "a]b", "awb", "a*b",
+                "a/x/y", "b"};
+
+        for (String glob : globs) {
+            GlobMatcher matcher = new GlobMatcher(glob);
+            Pattern pattern = Pattern.compile(Patterns.globToRegex(glob));
+            for (String path : paths) {
+                assertThat(glob + " against " + path, pattern.matcher(path).matches(), is(matcher.matches(path)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void globToRegexWithUnclosedAlternativeShouldThrow() {
+        Patterns.globToRegex("{a,b");
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.hook.repository.RepositoryHookContext;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProtectPathsAuditHookTest {
+    private ProtectPathsAuditHook protectPathsAuditHook;
+
+    @Mock
+    private ProtectPathsChangesetService protectPathsChangesetService;
+    @Mock
+    private StashAuthenticationContext stashAuthenticationContext;
+    @Mock
+    private AuditExecutor auditExecutor;
+    @Mock
+    private ProtectPathsMetrics metrics;
+    @Mock
+    private RepositoryHookContext repositoryHookContext;
+    @Mock
+    private Repository repository;
+    @Mock
+    private Settings settings;
+    @Mock
+    private RefChange refChange;
+    @Mock
+    private StashUser user;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(repositoryHookContext.getRepository()).thenReturn(repository);
+        when(repositoryHookContext.getSettings()).thenReturn(settings);
+        when(stashAuthenticationContext.getCurrentUser()).thenReturn(user);
+        when(auditExecutor.submit((StashUser) anyObject(), (Runnable) anyObject())).thenReturn(true);
+
+        protectPathsAuditHook = new ProtectPathsAuditHook(protectPathsChangesetService, stashAuthenticationContext,
+                auditExecutor, metrics);
+    }
+
+    @Test
+    public void pushShouldBeAuditedInBackground() {
+        protectPathsAuditHook.postReceive(repositoryHookContext, asList(refChange));
+
+        // Nothing is validated until the queued audit runs
+        verify(protectPathsChangesetService, never()).auditRefChanges((Repository) anyObject(),
+                (Settings) anyObject(), (Collection<RefChange>) anyObject());
+
+        runAudit();
+        verify(protectPathsChangesetService).auditRefChanges(repository, settings, asList(refChange));
+    }
+
+    @Test
+    public void violationsShouldBeRecorded() {
+        when(protectPathsChangesetService.auditRefChanges((Repository) anyObject(), (Settings) anyObject(),
+                (Collection<RefChange>) anyObject())).thenReturn(asList("refs/heads/master: x/y/z matches"));
+
+        protectPathsAuditHook.postReceive(repositoryHookContext, asList(refChange));
+        runAudit();
+
+        verify(metrics).recordAudit(anyLong(), eq(true));
+    }
+
+    @Test
+    public void validPushShouldBeRecorded() {
+        when(protectPathsChangesetService.auditRefChanges((Repository) anyObject(), (Settings) anyObject(),
+                (Collection<RefChange>) anyObject())).thenReturn(new ArrayList<String>());
+
+        protectPathsAuditHook.postReceive(repositoryHookContext, asList(refChange));
+        runAudit();
+
+        verify(metrics).recordAudit(anyLong(), eq(false));
+    }
+
+    @Test
+    public void timedOutAuditShouldBeRecorded() {
+        when(protectPathsChangesetService.auditRefChanges((Repository) anyObject(), (Settings) anyObject(),
+                (Collection<RefChange>) anyObject())).thenThrow(
+                new ValidationTimeoutException("Timed out", TimeoutAction.REJECT));
+
+        protectPathsAuditHook.postReceive(repositoryHookContext, asList(refChange));
+        runAudit();
+
+        verify(metrics).recordAudit(anyLong(), eq(false));
+    }
+
+    @Test
+    public void droppedAuditShouldNotValidate() {
+        when(auditExecutor.submit((StashUser) anyObject(), (Runnable) anyObject())).thenReturn(false);
+
+        protectPathsAuditHook.postReceive(repositoryHookContext, asList(refChange));
+
+        verify(metrics, never()).recordAudit(anyLong(), anyBoolean());
+    }
+
+    /**
+     * Runs the audit queued as the pushing user
+     */
+    private void runAudit() {
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(auditExecutor).submit(eq(user), task.capture());
+        task.getValue().run();
+    }
+}
@@ -2,27 +2,54 @@ package com.github.sgillespie.hook;
 
 import com.atlassian.stash.commit.CommitService;
 import com.atlassian.stash.content.*;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.repository.Branch;
+import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryBranchesRequest;
+import com.atlassian.stash.repository.RepositoryMetadataService;
+import com.atlassian.stash.server.ApplicationPropertiesService;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.user.Permission;
 import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.SecurityService;
 import com.atlassian.stash.user.StashAuthenticationContext;
 import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
 import com.atlassian.stash.util.Page;
 import com.atlassian.stash.util.PageImpl;
 import com.atlassian.stash.util.PageRequest;
+import com.google.common.collect.ImmutableSet;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static java.util.Arrays.asList;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -31,6 +58,8 @@ public class ProtectPathsChangesetServiceImplTest {
     private String fromHash;
     private String toHash;
     private String refId;
+    private ScanMetrics hookScans;
+    private ScanMetrics auditScans;
 
     @Mock
     private CommitService commitService;
@@ -48,6 +77,20 @@ public class ProtectPathsChangesetServiceImplTest {
     private StashUser user;
     @Mock
     private Change change;
+    @Mock
+    private ApplicationPropertiesService applicationPropertiesService;
+    @Mock
+    private SecurityService securityService;
+    @Mock
+    private ProtectPathsMetrics metrics;
+    @Mock
+    private UserService userService;
+    @Mock
+    private MergeBaseResolver mergeBaseResolver;
+    @Mock
+    private RepositoryMetadataService repositoryMetadataService;
+    @Mock
+    private GitChangeSource gitChangeSource;
 
 
     @Before
@@ -57,7 +100,30 @@ public class ProtectPathsChangesetServiceImplTest {
         // Mock some stuff
         when(user.getName()).thenReturn("user");
         when(stashAuthenticationContext.getCurrentUser()).thenReturn(user);
+        hookScans = new ScanMetrics();
+        auditScans = new ScanMetrics();
+        when(metrics.getHookScans()).thenReturn(hookScans);
+        when(metrics.getAuditScans()).thenReturn(auditScans);
         when(settingsFactoryService.getFilterType((Settings) anyObject())).thenReturn(FilterType.ALL);
+        when(settingsFactoryService.getValidationMode((Settings) anyObject())).thenReturn(ValidationMode.COMMITS);
+        when(settingsFactoryService.getSettings((Settings) anyObject())).thenAnswer(
+                new Answer<ProtectPathsSettings>() {
+                    @Override
+                    public ProtectPathsSettings answer(InvocationOnMock invocation) {
+                        // Compile the individually stubbed settings
+                        Settings settings = (Settings) invocation.getArguments()[0];
+                        return new ProtectPathsSettings(settingsFactoryService.getPathMatcher(settings),
+                                settingsFactoryService.getFilterType(settings),
+                                settingsFactoryService.getBranchFilters(settings),
+                                settingsFactoryService.getExcludedUsers(settings),
+                                settingsFactoryService.getExcludedGroups(settings),
+                                settingsFactoryService.getMaxViolations(settings),
+                                settingsFactoryService.getTimeout(settings),
+                                settingsFactoryService.getTimeoutAction(settings),
+                                settingsFactoryService.getValidationMode(settings),
+                                settingsFactoryService.getFingerprint(settings));
+                    }
+                });
 
         Changeset changeSet = mock(Changeset.class);
         when(changeSet.getId()).thenReturn("CHANGESET-ID");
@@ -67,6 +133,7 @@ public class ProtectPathsChangesetServiceImplTest {
                 (PageRequest) anyObject())).thenReturn(changeSets);
 
         DetailedChangeset detailedChangeset = mock(DetailedChangeset.class);
+        when(detailedChangeset.getToChangeset()).thenReturn(changeSet);
         Page<DetailedChangeset> detailedChangesets = new PageImpl<>(
                 ProtectPathsRepositoryHook.PAGE_REQUEST, 1, asList(detailedChangeset), true);
         when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
@@ -79,13 +146,13 @@ public class ProtectPathsChangesetServiceImplTest {
         fromHash = "FROM-HASH";
         toHash = "TO-HASH";
         refId = "refs/heads/master";
-        protectPathsChangesetService = new ProtectPathsChangesetServiceImpl(
-                commitService, permissionService, stashAuthenticationContext, settingsFactoryService);
+        protectPathsChangesetService = createService();
     }
 
     @Test
     public void adminUserWithRestrictedPathsChangeSetShouldBeValid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
 
         assertThat(isValidChangeset(true, "x/y/z"), is(TRUE));
         assertThat(isValidChangeset(true, "z/y/x"), is(TRUE));
@@ -93,14 +160,16 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void nonAdminUserWithNonRestrictedPathsChangeSetShouldBeValid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
 
         assertThat(isValidChangeset(false, "a/b/c"), is(TRUE));
     }
 
     @Test
     public void nonAdminUserWithRestrictedPathsChangeSetShouldBeInvalid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
 
         assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
         assertThat(isValidChangeset(false, "z/y/x"), is(FALSE));
@@ -108,7 +177,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void nonAdminUserWithRestrictedPathsAndAllFilterChangeSetShouldBeInvalid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getFilterType((Settings)anyObject())).thenReturn(FilterType.ALL);
 
         assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
@@ -117,7 +187,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void nonAdminUserWithRestrictedPathsAndIncludedBranchChangeSetShouldBeInvalid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getFilterType((Settings)anyObject())).thenReturn(FilterType.INCLUDE);
         when(settingsFactoryService.getBranchFilters((Settings)anyObject()))
                 .thenReturn(asList("branch-1", "branch-2"));
@@ -129,7 +200,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void nonAdminUserWithRestrictedPathsAndUnincludedBranchChangeSetShouldBeValid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getFilterType((Settings)anyObject())).thenReturn(FilterType.INCLUDE);
         when(settingsFactoryService.getBranchFilters((Settings)anyObject()))
                 .thenReturn(asList("branch-1", "branch-2"));
@@ -141,7 +213,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void nonAdminUserWithRestrictedPathsAndExcludedBranchChangeSetShouldBeValid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getFilterType((Settings)anyObject())).thenReturn(FilterType.EXCLUDE);
         when(settingsFactoryService.getBranchFilters((Settings)anyObject()))
                 .thenReturn(asList("branch-1", "branch-2"));
@@ -153,7 +226,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void nonAdminUserWithRestrictedPathsAndUnexcludedBranchChangeSetShouldBeInvalid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getFilterType((Settings)anyObject())).thenReturn(FilterType.EXCLUDE);
         when(settingsFactoryService.getBranchFilters((Settings)anyObject()))
                 .thenReturn(asList("branch-1", "branch-2"));
@@ -165,7 +239,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void excludedUserWithRestrictedPathsChangeSetShouldBeValid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getExcludedUsers((Settings)anyObject()))
                 .thenReturn(asList("excluded-user-1", "excluded-user-2"));
         when(user.getName()).thenReturn("excluded-user-1");
@@ -176,7 +251,8 @@ public class ProtectPathsChangesetServiceImplTest {
 
     @Test
     public void unexcludedUserWithRestrictedPathsChangeSetShouldBeInvalid() {
-        when(settingsFactoryService.getPathPatterns((Settings)anyObject())).thenReturn(asList("x/y/z", "z/y/x"));
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
         when(settingsFactoryService.getExcludedUsers((Settings)anyObject()))
                 .thenReturn(asList("excluded-user-1", "excluded-user-2"));
         when(user.getName()).thenReturn("unexcluded-user");
@@ -185,6 +261,735 @@ public class ProtectPathsChangesetServiceImplTest {
         assertThat(isValidChangeset(false, "z/y/x"), is(FALSE));
     }
 
+    @Test
+    public void excludedGroupMemberWithRestrictedPathsChangeSetShouldBeValid() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getExcludedGroups((Settings) anyObject()))
+                .thenReturn(asList("excluded-group-1", "excluded-group-2"));
+        when(userService.isUserInGroup(user, "excluded-group-2")).thenReturn(true);
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(TRUE));
+    }
+
+    @Test
+    public void nonMemberOfExcludedGroupsWithRestrictedPathsChangeSetShouldBeInvalid() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getExcludedGroups((Settings) anyObject()))
+                .thenReturn(asList("excluded-group-1"));
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+    }
+
+    @Test
+    public void multipleChangesetsShouldFetchDetailsOnceAndReportEachChangeset() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset1 = mockChangeset("CHANGESET-1");
+        Changeset changeset2 = mockChangeset("CHANGESET-2");
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2, asList(changeset1, changeset2), true));
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2,
+                asList(mockDetailedChangeset(changeset1, "a/b/c"), mockDetailedChangeset(changeset2, "x/y/z")),
+                true));
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(
+                repository, settings, refId, fromHash, toHash);
+
+        assertThat(errors, equalTo(asList("refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-2")));
+        verify(commitService, times(1)).getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void changesetsBeyondFirstPageShouldBeValidated() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset1 = mockChangeset("CHANGESET-1");
+        Changeset changeset2 = mockChangeset("CHANGESET-2");
+        Page<Changeset> firstPage = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1,
+                asList(changeset1), false);
+        Page<Changeset> secondPage = new PageImpl<>(firstPage.getNextPageRequest(), 1, asList(changeset2), true);
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(firstPage, secondPage);
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2,
+                asList(mockDetailedChangeset(changeset1, "a/b/c"), mockDetailedChangeset(changeset2, "x/y/z")),
+                true));
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(
+                repository, settings, refId, fromHash, toHash);
+
+        assertThat(errors, equalTo(asList("refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-2")));
+        verify(commitService, times(2)).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void changesBeyondFirstPageShouldBeValidated() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset = mockChangeset("CHANGESET-1");
+        DetailedChangeset detailedChangeset = mockDetailedChangeset(changeset, "a/b/c");
+        Page<Change> firstPage = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1,
+                asList(change), false);
+        when((Page<Change>) detailedChangeset.getChanges()).thenReturn(firstPage);
+        when(change.getPath()).thenReturn(new SimplePath("a/b/c"));
+
+        Change secondChange = mock(Change.class);
+        when(secondChange.getPath()).thenReturn(new SimplePath("z/y/x"));
+        Page<Change> secondPage = new PageImpl<>(firstPage.getNextPageRequest(), 1, asList(secondChange), true);
+        when((Page<Change>) commitService.getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject()))
+                .thenReturn(secondPage);
+
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(changeset), true));
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(detailedChangeset), true));
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(
+                repository, settings, refId, fromHash, toHash);
+
+        assertThat(errors, equalTo(asList("refs/heads/master: z/y/x matches restricted path z/y/x in CHANGESET-1")));
+    }
+
+    @Test
+    public void largeChangesetShouldBeFetchedPageByPage() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset = mockChangeset("CHANGESET-1");
+        DetailedChangeset detailedChangeset = mockDetailedChangeset(changeset, "a/b/c");
+        List<Change> firstChanges = new ArrayList<>();
+        for (int i = 0; i < ProtectPathsChangesetServiceImpl.PAGE_LIMIT; i++) {
+            Change firstChange = mock(Change.class);
+            when(firstChange.getPath()).thenReturn(new SimplePath("a/b/c" + i));
+            firstChanges.add(firstChange);
+        }
+        Page<Change> firstPage = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, firstChanges.size(),
+                firstChanges, false);
+        when((Page<Change>) detailedChangeset.getChanges()).thenReturn(firstPage);
+
+        Change lastChange = mock(Change.class);
+        when(lastChange.getPath()).thenReturn(new SimplePath("x/y/z"));
+        when((Page<Change>) commitService.getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject()))
+                .thenReturn(new PageImpl<>(firstPage.getNextPageRequest(), 1, asList(lastChange), true));
+
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(changeset), true));
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(detailedChangeset), true));
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(
+                repository, settings, refId, fromHash, toHash);
+        assertThat(errors, equalTo(asList("refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-1")));
+
+        // Only the first page of changes comes with the changeset; the rest is fetched page by page
+        ArgumentCaptor<DetailedChangesetsRequest> request = ArgumentCaptor.forClass(DetailedChangesetsRequest.class);
+        verify(commitService).getDetailedChangesets(request.capture(), (PageRequest) anyObject());
+        assertThat(request.getValue().getMaxChangesPerCommit(), is(ProtectPathsChangesetServiceImpl.PAGE_LIMIT));
+        ArgumentCaptor<PageRequest> pageRequest = ArgumentCaptor.forClass(PageRequest.class);
+        verify(commitService).getChanges((ChangesRequest) anyObject(), pageRequest.capture());
+        assertThat(pageRequest.getValue().getStart(), is(ProtectPathsChangesetServiceImpl.PAGE_LIMIT));
+    }
+
+    @Test
+    public void pathChangedByMultipleChangesetsShouldListChangesetsUnderPath() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset1 = mockChangeset("CHANGESET-1");
+        Changeset changeset2 = mockChangeset("CHANGESET-2");
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2, asList(changeset1, changeset2), true));
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2,
+                asList(mockDetailedChangeset(changeset1, "x/y/z"), mockDetailedChangeset(changeset2, "x/y/z")),
+                true));
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(
+                repository, settings, refId, fromHash, toHash);
+
+        assertThat(errors, equalTo(asList(
+                "refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-1, CHANGESET-2")));
+    }
+
+    @Test
+    public void changesetSharedByRefChangesShouldBeValidatedOnceAndReportedForEachRef() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset = mockChangeset("CHANGESET-1");
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(changeset), true));
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1,
+                asList(mockDetailedChangeset(changeset, "x/y/z")), true));
+
+        List<String> errors = protectPathsChangesetService.validateRefChanges(repository, settings,
+                asList(mockRefChange("refs/heads/branch-1"), mockRefChange("refs/heads/branch-2")));
+
+        assertThat(errors, equalTo(asList(
+                "refs/heads/branch-1: x/y/z matches restricted path x/y/z in CHANGESET-1",
+                "refs/heads/branch-2: x/y/z matches restricted path x/y/z in CHANGESET-1")));
+        verify(commitService, times(2)).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+        verify(commitService, times(1)).getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void refChangesShouldOnlyBeValidatedForIncludedBranches() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getFilterType((Settings) anyObject())).thenReturn(FilterType.INCLUDE);
+        when(settingsFactoryService.getBranchFilters((Settings) anyObject())).thenReturn(asList("branch-2"));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        List<String> errors = protectPathsChangesetService.validateRefChanges(repository, settings,
+                asList(mockRefChange("refs/heads/branch-1"), mockRefChange("refs/heads/branch-2")));
+
+        assertThat(errors, equalTo(asList(
+                "refs/heads/branch-2: x/y/z matches restricted path x/y/z in CHANGESET-ID")));
+        verify(commitService, times(1)).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void refChangesShouldBeAuthorizedOnce() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+
+        protectPathsChangesetService.validateRefChanges(repository, settings,
+                asList(mockRefChange("refs/heads/branch-1"), mockRefChange("refs/heads/branch-2")));
+
+        verify(permissionService, times(1)).hasRepositoryPermission((Repository) anyObject(),
+                eq(Permission.REPO_ADMIN));
+    }
+
+    @Test
+    public void auditShouldBeCountedApartFromPushes() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        assertThat(protectPathsChangesetService.auditRefChanges(repository, settings,
+                asList(mockRefChange(refId))).size(), is(1));
+        assertThat(auditScans.getChangesetsScanned(), is(1L));
+        assertThat(auditScans.getPathsScanned(), is(1L));
+        assertThat(hookScans.getChangesetsScanned(), is(0L));
+
+        protectPathsChangesetService.validateRefChanges(repository, settings, asList(mockRefChange(refId)));
+        assertThat(hookScans.getChangesetsScanned(), is(1L));
+        assertThat(auditScans.getChangesetsScanned(), is(1L));
+    }
+
+    @Test
+    public void cachedChangesetShouldNotBeFetchedAgain() {
+        when(applicationPropertiesService.getPluginProperty(eq(ChangesetResultCache.PROPERTY_SIZE), anyInt()))
+                .thenReturn(100);
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        verify(commitService, times(1)).getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void unchangedPullRequestShouldBeValidatedOnce() {
+        when(applicationPropertiesService.getPluginProperty(eq(MergeCheckCache.PROPERTY_SIZE), anyInt()))
+                .thenReturn(100);
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getFingerprint((Settings) anyObject())).thenReturn("FINGERPRINT");
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+        PullRequest pullRequest = mockPullRequest();
+
+        List<String> errors = protectPathsChangesetService.validatePullRequest(repository, settings, pullRequest);
+        assertThat(errors, equalTo(asList(
+                "refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-ID")));
+        assertThat(protectPathsChangesetService.validatePullRequest(repository, settings, pullRequest),
+                equalTo(errors));
+        verify(commitService, times(1)).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+        verify(permissionService, times(1)).hasRepositoryPermission((Repository) anyObject(),
+                eq(Permission.REPO_ADMIN));
+
+        // Changing the settings should validate the pull request again
+        when(settingsFactoryService.getFingerprint((Settings) anyObject())).thenReturn("CHANGED");
+        protectPathsChangesetService.validatePullRequest(repository, settings, pullRequest);
+        verify(commitService, times(2)).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void cachedPullRequestVerdictShouldRespectExclusion() {
+        when(applicationPropertiesService.getPluginProperty(eq(MergeCheckCache.PROPERTY_SIZE), anyInt()))
+                .thenReturn(100);
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getExcludedUsers((Settings) anyObject())).thenReturn(asList("excluded-user"));
+        when(settingsFactoryService.getFingerprint((Settings) anyObject())).thenReturn("FINGERPRINT");
+        PullRequest pullRequest = mockPullRequest();
+
+        assertThat(protectPathsChangesetService.validatePullRequest(repository, settings, pullRequest).size(),
+                is(1));
+
+        // The verdict is shared, but an excluded user may still merge
+        when(user.getName()).thenReturn("excluded-user");
+        assertThat(protectPathsChangesetService.validatePullRequest(repository, settings, pullRequest), empty());
+        verify(commitService, times(1)).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void excludedUserShouldNotValidatePullRequest() {
+        when(settingsFactoryService.getFingerprint((Settings) anyObject())).thenReturn("FINGERPRINT");
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(true);
+
+        assertThat(protectPathsChangesetService.validatePullRequest(repository, settings, mockPullRequest()),
+                empty());
+        verify(commitService, never()).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void validationShouldStopAtMaxViolations() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getMaxViolations((Settings) anyObject())).thenReturn(1);
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Changeset changeset1 = mockChangeset("CHANGESET-1");
+        Changeset changeset2 = mockChangeset("CHANGESET-2");
+        DetailedChangeset detailedChangeset2 = mockDetailedChangeset(changeset2, "z/y/x");
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2, asList(changeset1, changeset2), true));
+        when(commitService.getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(new PageImpl<>(
+                ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 2,
+                asList(mockDetailedChangeset(changeset1, "x/y/z"), detailedChangeset2), true));
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(
+                repository, settings, refId, fromHash, toHash);
+
+        assertThat(errors, equalTo(asList("refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-1")));
+        verify(detailedChangeset2, never()).getChanges();
+    }
+
+    @Test(expected = ValidationTimeoutException.class)
+    public void slowValidationShouldTimeOut() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getTimeout((Settings) anyObject())).thenReturn(1);
+        when(settingsFactoryService.getTimeoutAction((Settings) anyObject())).thenReturn(TimeoutAction.REJECT);
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        final Page<Changeset> changesets = commitService.getChangesetsBetween(null, null);
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(), (PageRequest) anyObject()))
+                .thenAnswer(new Answer<Page<Changeset>>() {
+                    @Override
+                    public Page<Changeset> answer(InvocationOnMock invocation) throws Throwable {
+                        Thread.sleep(1100);
+                        return changesets;
+                    }
+                });
+
+        isValidChangeset(false, "a/b/c");
+    }
+
+    @Test
+    public void validationFinishedAtTimeoutShouldNotTimeOut() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getTimeout((Settings) anyObject())).thenReturn(1);
+        when(settingsFactoryService.getTimeoutAction((Settings) anyObject())).thenReturn(TimeoutAction.REJECT);
+
+        // Nothing is left to scan once the only page has been fetched
+        when(commitService.getChangesetsBetween((ChangesetsBetweenRequest) anyObject(), (PageRequest) anyObject()))
+                .thenAnswer(new Answer<Page<Changeset>>() {
+                    @Override
+                    public Page<Changeset> answer(InvocationOnMock invocation) throws Throwable {
+                        Thread.sleep(1100);
+                        return new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 0,
+                                Collections.<Changeset>emptyList(), true);
+                    }
+                });
+
+        assertThat(protectPathsChangesetService.validateChangesets(repository, settings, refId, fromHash, toHash),
+                empty());
+    }
+
+    @Test
+    public void netDiffShouldValidateDiffOfTips() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getValidationMode((Settings) anyObject())).thenReturn(ValidationMode.NET_DIFF);
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        Change diffChange = mock(Change.class);
+        when(diffChange.getPath()).thenReturn(new SimplePath("z/y/x"));
+        Page<Change> diff = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(diffChange), true);
+        when(commitService.getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject())).thenReturn(diff);
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(repository, settings, refId, fromHash,
+                toHash);
+        assertThat(errors, equalTo(asList(
+                "refs/heads/master: z/y/x matches restricted path z/y/x in FROM-HASH..TO-HASH")));
+        verify(commitService, never()).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+        verify(commitService, never()).getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void netDiffOfCreatedBranchShouldValidateChangesets() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getValidationMode((Settings) anyObject())).thenReturn(ValidationMode.NET_DIFF);
+        fromHash = "0000000000000000000000000000000000000000";
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        verify(commitService, never()).getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject());
+    }
+
+    @Test
+    public void netDiffPullRequestShouldDiffFromMergeBase() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getValidationMode((Settings) anyObject())).thenReturn(ValidationMode.NET_DIFF);
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+        when(mergeBaseResolver.findMergeBase(repository, fromHash, toHash)).thenReturn("MERGE-BASE");
+
+        Change diffChange = mock(Change.class);
+        when(diffChange.getPath()).thenReturn(new SimplePath("z/y/x"));
+        Page<Change> diff = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(diffChange), true);
+        when(commitService.getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject())).thenReturn(diff);
+
+        List<String> errors = protectPathsChangesetService.validatePullRequest(repository, settings,
+                mockPullRequest());
+        assertThat(errors, equalTo(asList(
+                "refs/heads/master: z/y/x matches restricted path z/y/x in MERGE-BASE..TO-HASH")));
+        verify(commitService, never()).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void netDiffPullRequestWithoutMergeBaseShouldValidateChangesets() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getValidationMode((Settings) anyObject())).thenReturn(ValidationMode.NET_DIFF);
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+
+        List<String> errors = protectPathsChangesetService.validatePullRequest(repository, settings,
+                mockPullRequest());
+        assertThat(errors, equalTo(asList(
+                "refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-ID")));
+        verify(commitService, never()).getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject());
+    }
+
+    @Test
+    public void createdBranchShouldBeValidatedAgainstExistingBranches() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        mockBranches("TIP-1", "TIP-2", "TIP-1");
+        fromHash = "0000000000000000000000000000000000000000";
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        verify(repositoryMetadataService, times(1)).getBranches((RepositoryBranchesRequest) anyObject(),
+                (PageRequest) anyObject());
+
+        // Only the changesets that aren't on another branch are validated
+        ArgumentCaptor<ChangesetsBetweenRequest> request = ArgumentCaptor.forClass(ChangesetsBetweenRequest.class);
+        verify(commitService).getChangesetsBetween(request.capture(), (PageRequest) anyObject());
+        assertThat(request.getValue().getExcludes(), equalTo((Set<String>) ImmutableSet.of("TIP-1", "TIP-2")));
+    }
+
+    @Test
+    public void createdBranchesShouldFetchExistingBranchesOnce() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
+                .thenReturn(false);
+        mockBranches("TIP-1");
+
+        RefChange branch1 = mockRefChange("refs/heads/branch-1");
+        when(branch1.getFromHash()).thenReturn("0000000000000000000000000000000000000000");
+        RefChange branch2 = mockRefChange("refs/heads/branch-2");
+        when(branch2.getFromHash()).thenReturn("0000000000000000000000000000000000000000");
+
+        assertThat(protectPathsChangesetService.validateRefChanges(repository, settings, asList(branch1, branch2))
+                .size(), is(2));
+        verify(repositoryMetadataService, times(1)).getBranches((RepositoryBranchesRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void createdBranchShouldNotBeExcludedByItsOwnTip() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        // After the push, as audited by a post-receive hook, the created branch already exists
+        mockBranches(asList(mockBranch("refs/heads/master", "TIP-1"), mockBranch(refId, toHash)));
+        fromHash = "0000000000000000000000000000000000000000";
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        ArgumentCaptor<ChangesetsBetweenRequest> request = ArgumentCaptor.forClass(ChangesetsBetweenRequest.class);
+        verify(commitService).getChangesetsBetween(request.capture(), (PageRequest) anyObject());
+        assertThat(request.getValue().getExcludes(), equalTo((Set<String>) ImmutableSet.of("TIP-1")));
+    }
+
+    @Test
+    public void createdBranchShouldNotBeExcludedByUnprotectedBranches() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        when(settingsFactoryService.getFilterType((Settings) anyObject())).thenReturn(FilterType.INCLUDE);
+        when(settingsFactoryService.getBranchFilters((Settings) anyObject())).thenReturn(asList("release/.*"));
+        // The changeset is only on an unprotected branch, so it was never validated
+        mockBranches(asList(mockBranch("refs/heads/release/0", "TIP-1"), mockBranch("refs/heads/feature/x", toHash)));
+        refId = "refs/heads/release/1";
+        fromHash = "0000000000000000000000000000000000000000";
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        ArgumentCaptor<ChangesetsBetweenRequest> request = ArgumentCaptor.forClass(ChangesetsBetweenRequest.class);
+        verify(commitService).getChangesetsBetween(request.capture(), (PageRequest) anyObject());
+        assertThat(request.getValue().getExcludes(), equalTo((Set<String>) ImmutableSet.of("TIP-1")));
+    }
+
+    @Test
+    public void updatedBranchShouldNotFetchExistingBranches() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        verify(repositoryMetadataService, never()).getBranches((RepositoryBranchesRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void deletedBranchShouldBeValid() {
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        toHash = "0000000000000000000000000000000000000000";
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(TRUE));
+        verify(commitService, never()).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void pathFilteredQueryShouldValidateChangesets() {
+        when(applicationPropertiesService.getPluginProperty(
+                eq(ProtectPathsChangesetServiceImpl.PROPERTY_PATH_FILTER), anyBoolean())).thenReturn(true);
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/.*")));
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        assertThat(isValidChangeset(false, "z/y/x"), is(FALSE));
+        assertThat(isValidChangeset(false, "a/b/c"), is(TRUE));
+
+        // Only changesets changing the protected paths are queried
+        ArgumentCaptor<ChangesetsBetweenRequest> request = ArgumentCaptor.forClass(ChangesetsBetweenRequest.class);
+        verify(commitService, times(3)).getChangesetsBetween(request.capture(), (PageRequest) anyObject());
+        assertThat(request.getValue().getPaths(), equalTo((Set<String>) ImmutableSet.of("x/y/z", "z")));
+    }
+
+    @Test
+    public void pathFilterShouldBeDisabledByDefault() {
+        when(applicationPropertiesService.getPluginProperty(
+                eq(ProtectPathsChangesetServiceImpl.PROPERTY_PATH_FILTER), anyBoolean())).thenAnswer(
+                new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        return (Boolean) invocation.getArguments()[1];
+                    }
+                });
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z")));
+
+        assertThat(isValidChangeset(false, "x/y/z"), is(FALSE));
+        ArgumentCaptor<ChangesetsBetweenRequest> request = ArgumentCaptor.forClass(ChangesetsBetweenRequest.class);
+        verify(commitService).getChangesetsBetween(request.capture(), (PageRequest) anyObject());
+        assertThat(request.getValue().getPaths(), empty());
+    }
+
+    @Test
+    public void gitLogShouldValidateStreamedChanges() {
+        when(applicationPropertiesService.getPluginProperty(
+                eq(ProtectPathsChangesetServiceImpl.PROPERTY_GIT_LOG), anyBoolean())).thenReturn(true);
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                GitChangesOutputHandler.Callback callback =
+                        (GitChangesOutputHandler.Callback) invocation.getArguments()[4];
+                if (callback.startChangeset("CHANGESET-1", asList(fromHash))) callback.change("a/b/c");
+                if (callback.startChangeset("CHANGESET-2", asList("CHANGESET-1"))) {
+                    callback.change("x/y/z");
+                    callback.change("z/y/x");
+                }
+                return null;
+            }
+        }).when(gitChangeSource).scan(eq(repository), eq(asList(fromHash)), eq(toHash),
+                (Collection<String>) anyObject(), (GitChangesOutputHandler.Callback) anyObject());
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(repository, settings, refId,
+                fromHash, toHash);
+        assertThat(errors, equalTo(asList(
+                "refs/heads/master: x/y/z matches restricted path x/y/z in CHANGESET-2",
+                "refs/heads/master: z/y/x matches restricted path z/y/x in CHANGESET-2")));
+        verify(commitService, never()).getChangesetsBetween((ChangesetsBetweenRequest) anyObject(),
+                (PageRequest) anyObject());
+        verify(commitService, never()).getDetailedChangesets((DetailedChangesetsRequest) anyObject(),
+                (PageRequest) anyObject());
+    }
+
+    @Test
+    public void gitLogShouldDiffMergesAgainstFirstParent() {
+        when(applicationPropertiesService.getPluginProperty(
+                eq(ProtectPathsChangesetServiceImpl.PROPERTY_GIT_LOG), anyBoolean())).thenReturn(true);
+        protectPathsChangesetService = createService();
+        when(settingsFactoryService.getPathMatcher((Settings) anyObject()))
+                .thenReturn(new PathPatternMatcher(asList("x/y/z", "z/y/x")));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                GitChangesOutputHandler.Callback callback =
+                        (GitChangesOutputHandler.Callback) invocation.getArguments()[4];
+                callback.startChangeset("MERGE-ID", asList("PARENT-1", "PARENT-2"));
+                return null;
+            }
+        }).when(gitChangeSource).scan(eq(repository), eq(asList(fromHash)), eq(toHash),
+                (Collection<String>) anyObject(), (GitChangesOutputHandler.Callback) anyObject());
+        Page<Change> diff = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(change), true);
+        when(commitService.getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject())).thenReturn(diff);
+
+        List<String> errors = protectPathsChangesetService.validateChangesets(repository, settings, refId,
+                fromHash, toHash);
+        assertThat(errors, equalTo(asList("refs/heads/master: x/y/z matches restricted path x/y/z in MERGE-ID")));
+        verify(commitService, times(1)).getChanges((ChangesRequest) anyObject(), (PageRequest) anyObject());
+    }
+
+    /**
+     * Creates the service, with caches and executors configured by the currently stubbed plugin properties
+     */
+    private ProtectPathsChangesetService createService() {
+        return new ProtectPathsChangesetServiceImpl(commitService, repositoryMetadataService, permissionService,
+                stashAuthenticationContext, settingsFactoryService,
+                new ChangesetResultCache(applicationPropertiesService),
+                new MergeCheckCache(applicationPropertiesService),
+                new GroupMembershipCache(userService, applicationPropertiesService),
+                new ValidationExecutor(applicationPropertiesService, securityService), mergeBaseResolver,
+                gitChangeSource, applicationPropertiesService, metrics);
+    }
+
+    private void mockBranches(String... tips) {
+        List<Branch> branches = new ArrayList<>();
+        for (int i = 0; i < tips.length; i++) {
+            branches.add(mockBranch("refs/heads/branch-" + i, tips[i]));
+        }
+        mockBranches(branches);
+    }
+
+    private void mockBranches(List<Branch> branches) {
+        Page<Branch> page = new PageImpl<>(ProtectPathsChangesetServiceImpl.BRANCH_PAGE_REQUEST, branches.size(),
+                branches, true);
+        when(repositoryMetadataService.getBranches((RepositoryBranchesRequest) anyObject(),
+                (PageRequest) anyObject())).thenReturn(page);
+    }
+
+    private Branch mockBranch(String id, String tip) {
+        Branch branch = mock(Branch.class);
+        when(branch.getId()).thenReturn(id);
+        when(branch.getLatestChangeset()).thenReturn(tip);
+        return branch;
+    }
+
+    private PullRequest mockPullRequest() {
+        PullRequestRef fromRef = mock(PullRequestRef.class);
+        when(fromRef.getId()).thenReturn("refs/heads/feature");
+        when(fromRef.getLatestChangeset()).thenReturn(toHash);
+        PullRequestRef toRef = mock(PullRequestRef.class);
+        when(toRef.getId()).thenReturn(refId);
+        when(toRef.getLatestChangeset()).thenReturn(fromHash);
+
+        PullRequest pullRequest = mock(PullRequest.class);
+        when(pullRequest.getFromRef()).thenReturn(fromRef);
+        when(pullRequest.getToRef()).thenReturn(toRef);
+        return pullRequest;
+    }
+
+    private RefChange mockRefChange(String refId) {
+        RefChange refChange = mock(RefChange.class);
+        when(refChange.getRefId()).thenReturn(refId);
+        when(refChange.getFromHash()).thenReturn(fromHash);
+        when(refChange.getToHash()).thenReturn(toHash);
+        return refChange;
+    }
+
+    private Changeset mockChangeset(String id) {
+        Changeset changeset = mock(Changeset.class);
+        when(changeset.getId()).thenReturn(id);
+        return changeset;
+    }
+
+    private DetailedChangeset mockDetailedChangeset(Changeset changeset, String path) {
+        Change change = mock(Change.class);
+        when(change.getPath()).thenReturn(new SimplePath(path));
+
+        DetailedChangeset detailedChangeset = mock(DetailedChangeset.class);
+        when(detailedChangeset.getToChangeset()).thenReturn(changeset);
+        Page<Change> changes = new PageImpl<>(ProtectPathsChangesetServiceImpl.PAGE_REQUEST, 1, asList(change), true);
+        when((Page<Change>) detailedChangeset.getChanges()).thenReturn(changes);
+        return detailedChangeset;
+    }
+
     private Boolean isValidChangeset(Boolean isAdministrator, String path) {
         // Mock user
         when(permissionService.hasRepositoryPermission((Repository) anyObject(), eq(Permission.REPO_ADMIN)))
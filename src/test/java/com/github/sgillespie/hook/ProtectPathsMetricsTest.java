@@ -0,0 +1,131 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.Repository;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProtectPathsMetricsTest {
+    private ProtectPathsMetrics metrics;
+    private Repository repository;
+
+    @Before
+    public void setUp() {
+        metrics = new ProtectPathsMetrics();
+
+        Project project = mock(Project.class);
+        when(project.getKey()).thenReturn("PROJECT");
+        repository = mock(Repository.class);
+        when(repository.getProject()).thenReturn(project);
+        when(repository.getSlug()).thenReturn("repo");
+    }
+
+    @Test
+    public void hooksShouldBeRecorded() {
+        metrics.recordHook(repository, TimeUnit.MILLISECONDS.toNanos(5), false);
+        metrics.recordHook(repository, TimeUnit.MILLISECONDS.toNanos(10), true);
+
+        assertThat(metrics.getHookInvocations(), is(2L));
+        assertThat(metrics.getHookTimeMillis(), is(15L));
+        assertThat(metrics.getMaxHookTimeMillis(), is(10L));
+        assertThat(metrics.getRejections(), is(1L));
+        assertThat(metrics.getRepositoryHookTimeMillis(), equalTo(Collections.singletonMap("PROJECT/repo", 15L)));
+    }
+
+    @Test
+    public void scansShouldBeRecorded() {
+        metrics.getHookScans().recordScan(2, 10, 4, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.getHookScans().recordFetch(TimeUnit.MILLISECONDS.toNanos(7));
+        metrics.getHookScans().recordChangesetCache(true);
+        metrics.getHookScans().recordChangesetCache(false);
+        metrics.recordMergeCheckCache(false);
+
+        assertThat(metrics.getChangesetsScanned(), is(2L));
+        assertThat(metrics.getPathsScanned(), is(10L));
+        assertThat(metrics.getPatternEvaluations(), is(4L));
+        assertThat(metrics.getMatchTimeMillis(), is(3L));
+        assertThat(metrics.getFetchTimeMillis(), is(7L));
+        assertThat(metrics.getChangesetCacheHits(), is(1L));
+        assertThat(metrics.getChangesetCacheMisses(), is(1L));
+        assertThat(metrics.getMergeCheckCacheHits(), is(0L));
+        assertThat(metrics.getMergeCheckCacheMisses(), is(1L));
+    }
+
+    @Test
+    public void auditScansShouldBeRecordedSeparately() {
+        metrics.getAuditScans().recordScan(2, 10, 4, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.getAuditScans().recordFetch(TimeUnit.MILLISECONDS.toNanos(7));
+        metrics.getAuditScans().recordChangesetCache(true);
+
+        assertThat(metrics.getAuditChangesetsScanned(), is(2L));
+        assertThat(metrics.getAuditPathsScanned(), is(10L));
+        assertThat(metrics.getAuditPatternEvaluations(), is(4L));
+        assertThat(metrics.getAuditMatchTimeMillis(), is(3L));
+        assertThat(metrics.getAuditFetchTimeMillis(), is(7L));
+        assertThat(metrics.getAuditChangesetCacheHits(), is(1L));
+        assertThat(metrics.getChangesetsScanned(), is(0L));
+        assertThat(metrics.getPathsScanned(), is(0L));
+        assertThat(metrics.getChangesetCacheHits(), is(0L));
+    }
+
+    @Test
+    public void auditsShouldBeRecorded() {
+        metrics.recordAudit(TimeUnit.MILLISECONDS.toNanos(5), false);
+        metrics.recordAudit(TimeUnit.MILLISECONDS.toNanos(10), true);
+        metrics.recordAuditDrop();
+
+        assertThat(metrics.getAudits(), is(2L));
+        assertThat(metrics.getAuditTimeMillis(), is(15L));
+        assertThat(metrics.getAuditViolations(), is(1L));
+        assertThat(metrics.getAuditsDropped(), is(1L));
+        assertThat(metrics.getHookInvocations(), is(0L));
+    }
+
+    @Test
+    public void resetShouldClearMetrics() {
+        metrics.recordHook(repository, 100, true);
+        metrics.getAuditScans().recordScan(1, 1, 1, 1);
+        metrics.reset();
+
+        assertThat(metrics.getHookInvocations(), is(0L));
+        assertThat(metrics.getAuditChangesetsScanned(), is(0L));
+        assertThat(metrics.getRejections(), is(0L));
+        assertThat(metrics.getRepositoryHookTimeMillis().isEmpty(), is(true));
+    }
+
+    @Test
+    public void metricsShouldBeRegistered() throws Exception {
+        // A new instance replaces the previously registered one
+        metrics.afterPropertiesSet();
+        ProtectPathsMetrics newMetrics = new ProtectPathsMetrics();
+        newMetrics.afterPropertiesSet();
+        newMetrics.getHookScans().recordScan(1, 0, 0, 0);
+
+        try {
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName(ProtectPathsMetrics.OBJECT_NAME), "ChangesetsScanned"), is((Object) 1L));
+        } finally {
+            newMetrics.destroy();
+        }
+    }
+
+    @Test
+    public void destroyedMetricsShouldBeUnregistered() throws Exception {
+        metrics.afterPropertiesSet();
+        metrics.destroy();
+
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName(ProtectPathsMetrics.OBJECT_NAME)), is(false));
+    }
+}
@@ -24,6 +24,7 @@ import static java.lang.Boolean.TRUE;
 import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -45,6 +46,8 @@ public class ProtectPathsRepositoryHookTest {
     @Mock
     private MergeRequest mergeRequest;
     @Mock
+    private PullRequest pullRequest;
+    @Mock
     private PullRequestRef pullRequestFromRef;
     @Mock
     private PullRequestRef pullRequestToRef;
@@ -52,6 +55,8 @@ public class ProtectPathsRepositoryHookTest {
     private Repository repository;
     @Mock
     private Settings settings;
+    @Mock
+    private ProtectPathsMetrics metrics;
 
     @Before
     public void setup() {
@@ -68,7 +73,6 @@ public class ProtectPathsRepositoryHookTest {
         when(refChange.getRefId()).thenReturn("refs/heads/master");
 
         when(mergeRequestCheckContext.getMergeRequest()).thenReturn(mergeRequest);
-        PullRequest pullRequest = mock(PullRequest.class);
         when(mergeRequest.getPullRequest()).thenReturn(pullRequest);
         when(pullRequest.getFromRef()).thenReturn(pullRequestFromRef);
         when(pullRequestFromRef.getRepository()).thenReturn(repository);
@@ -78,39 +82,77 @@ public class ProtectPathsRepositoryHookTest {
         when(pullRequest.getToRef()).thenReturn(pullRequestToRef);
         when(pullRequestToRef.getLatestChangeset()).thenReturn("TO-HASH");
 
-        protectPathsRepositoryHook = new ProtectPathsRepositoryHook(protectPathsChangesetService);
+        protectPathsRepositoryHook = new ProtectPathsRepositoryHook(protectPathsChangesetService, metrics);
     }
 
     @Test
     public void validChangeSetShouldPush() {
-        when(protectPathsChangesetService.validateChangesets((Repository)anyObject(), (Settings)anyObject(),
-                eq("refs/heads/master"), eq("FROM-HASH"), eq("TO-HASH"))).thenReturn(new ArrayList<String>());
+        when(protectPathsChangesetService.validateRefChanges((Repository)anyObject(), (Settings)anyObject(),
+                eq(asList(refChange)))).thenReturn(new ArrayList<String>());
         assertThat(push(), is(TRUE));
     }
 
     @Test
     public void invalidChangeSetShoudNotPush() {
-        when(protectPathsChangesetService.validateChangesets((Repository)anyObject(), (Settings)anyObject(),
-                eq("refs/heads/master"), eq("FROM-HASH"), eq("TO-HASH"))).thenReturn(asList("error!"));
+        when(protectPathsChangesetService.validateRefChanges((Repository)anyObject(), (Settings)anyObject(),
+                eq(asList(refChange)))).thenReturn(asList("error!"));
         assertThat(push(), is(Boolean.FALSE));
     }
 
+    @Test
+    public void rejectedPushShouldBeRecorded() {
+        when(protectPathsChangesetService.validateRefChanges((Repository)anyObject(), (Settings)anyObject(),
+                eq(asList(refChange)))).thenReturn(asList("error!"));
+        push();
+        verify(metrics, times(1)).recordHook((Repository) anyObject(), anyLong(), eq(true));
+    }
+
     @Test
     public void validChangeSetShouldMerge() {
-        when(protectPathsChangesetService.validateChangesets((Repository)anyObject(), (Settings)anyObject(),
-                anyString(), anyString(), anyString())).thenReturn(new ArrayList<String>());
+        when(protectPathsChangesetService.validatePullRequest((Repository)anyObject(), (Settings)anyObject(),
+                (PullRequest)anyObject())).thenReturn(new ArrayList<String>());
         merge();
         verify(mergeRequestCheckContext.getMergeRequest(), never()).veto(anyString(), anyString());
     }
 
     @Test
     public void validChangeSetShouldNotMerge() {
-        when(protectPathsChangesetService.validateChangesets((Repository)anyObject(), (Settings)anyObject(),
-                eq("refs/heads/master"), eq("TO-HASH"), eq("FROM-HASH"))).thenReturn(asList("error!"));
+        when(protectPathsChangesetService.validatePullRequest((Repository)anyObject(), (Settings)anyObject(),
+                eq(pullRequest))).thenReturn(asList("error!"));
         merge();
         verify(mergeRequestCheckContext.getMergeRequest(), times(1)).veto(anyString(), anyString());
     }
 
+    @Test
+    public void timedOutValidationShouldNotPush() {
+        when(protectPathsChangesetService.validateRefChanges((Repository)anyObject(), (Settings)anyObject(),
+                eq(asList(refChange)))).thenThrow(new ValidationTimeoutException("timed out", TimeoutAction.REJECT));
+        assertThat(push(), is(Boolean.FALSE));
+    }
+
+    @Test
+    public void timedOutValidationAllowedShouldPush() {
+        when(protectPathsChangesetService.validateRefChanges((Repository)anyObject(), (Settings)anyObject(),
+                eq(asList(refChange)))).thenThrow(new ValidationTimeoutException("timed out", TimeoutAction.ALLOW));
+        assertThat(push(), is(TRUE));
+    }
+
+    @Test
+    public void timedOutValidationShouldNotMerge() {
+        when(protectPathsChangesetService.validatePullRequest((Repository)anyObject(), (Settings)anyObject(),
+                eq(pullRequest))).thenThrow(new ValidationTimeoutException("timed out", TimeoutAction.REJECT));
+        merge();
+        verify(mergeRequestCheckContext.getMergeRequest(), times(1)).veto(anyString(), anyString());
+    }
+
+    @Test
+    public void timedOutValidationAllowedShouldMerge() {
+        when(protectPathsChangesetService.validatePullRequest((Repository)anyObject(), (Settings)anyObject(),
+                eq(pullRequest))).thenThrow(new ValidationTimeoutException("timed out", TimeoutAction.ALLOW));
+        merge();
+        verify(mergeRequestCheckContext.getMergeRequest(), never()).veto(anyString(), anyString());
+    }
+
     private boolean push() {
         return protectPathsRepositoryHook.onReceive(repositoryHookContext, Arrays.asList(refChange), hookResponse);
     }
@@ -0,0 +1,55 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ProtectPathsSettingsTest {
+    @Test
+    public void allFilterShouldIncludeEveryRef() {
+        assertThat(settings(FilterType.ALL, asList("master")).isIncludedRef("refs/heads/feature"), is(true));
+    }
+
+    @Test
+    public void allFilterShouldIgnoreInvalidBranchFilters() {
+        assertThat(settings(FilterType.ALL, asList("release/(.*")).isIncludedRef("refs/heads/feature"), is(true));
+    }
+
+    @Test
+    public void includeFilterShouldIncludeMatchingBranches() {
+        ProtectPathsSettings settings = settings(FilterType.INCLUDE, asList("master", "release/.*"));
+
+        assertThat(settings.isIncludedRef("refs/heads/master"), is(true));
+        assertThat(settings.isIncludedRef("refs/heads/release/1.0"), is(true));
+        assertThat(settings.isIncludedRef("refs/heads/feature"), is(false));
+    }
+
+    @Test
+    public void excludeFilterShouldIncludeOtherBranches() {
+        ProtectPathsSettings settings = settings(FilterType.EXCLUDE, asList("master"));
+
+        assertThat(settings.isIncludedRef("refs/heads/master"), is(false));
+        assertThat(settings.isIncludedRef("refs/heads/feature"), is(true));
+    }
+
+    @Test
+    public void excludedUsersShouldBeExcluded() {
+        ProtectPathsSettings settings = new ProtectPathsSettings(new PathPatternMatcher(asList("x/y/z")),
+                FilterType.ALL, Collections.<String>emptyList(), asList("user1", "user2"),
+                Collections.<String>emptyList(), 0, 0, TimeoutAction.REJECT, ValidationMode.COMMITS, "FINGERPRINT");
+
+        assertThat(settings.isExcludedUser("user1"), is(true));
+        assertThat(settings.isExcludedUser("user3"), is(false));
+    }
+
+    private ProtectPathsSettings settings(FilterType filterType, List<String> branchFilters) {
+        return new ProtectPathsSettings(new PathPatternMatcher(asList("x/y/z")), filterType, branchFilters,
+                Collections.<String>emptyList(), Collections.<String>emptyList(), 0, 0, TimeoutAction.REJECT,
+                ValidationMode.COMMITS, "FINGERPRINT");
+    }
+}
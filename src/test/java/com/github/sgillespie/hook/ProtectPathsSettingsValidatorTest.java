@@ -10,6 +10,7 @@ import org.mockito.MockitoAnnotations;
 
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -34,4 +35,53 @@ public class ProtectPathsSettingsValidatorTest {
         validator.validate(settings, settingsValidationErrors, repository);
         verify(settingsValidationErrors).addFieldError(eq("pathPatterns"), anyString());
     }
+
+    @Test
+    public void invalidRegexShouldThrowError() {
+        when(settings.getString(eq("pathPatterns"))).thenReturn("x/y/z x/(y");
+        validator.validate(settings, settingsValidationErrors, repository);
+        verify(settingsValidationErrors).addFieldError(eq("pathPatterns"), anyString());
+    }
+
+    @Test
+    public void invalidGlobShouldThrowError() {
+        when(settings.getString(eq("pathPatterns"))).thenReturn("x/[yz");
+        when(settings.getString(eq("pathSyntax"))).thenReturn("GLOB");
+        validator.validate(settings, settingsValidationErrors, repository);
+        verify(settingsValidationErrors).addFieldError(eq("pathPatterns"), anyString());
+    }
+
+    @Test
+    public void invalidMaxViolationsShouldThrowError() {
+        when(settings.getString(eq("pathPatterns"))).thenReturn("x/y/z");
+        when(settings.getString(eq("maxViolations"))).thenReturn("-1");
+        validator.validate(settings, settingsValidationErrors, repository);
+        verify(settingsValidationErrors).addFieldError(eq("maxViolations"), anyString());
+    }
+
+    @Test
+    public void validMaxViolationsShouldNotThrowError() {
+        when(settings.getString(eq("pathPatterns"))).thenReturn("x/y/z");
+        when(settings.getString(eq("maxViolations"))).thenReturn("10");
+        validator.validate(settings, settingsValidationErrors, repository);
+        verify(settingsValidationErrors, never()).addFieldError(anyString(), anyString());
+    }
+
+    @Test
+    public void invalidBranchFilterShouldThrowError() {
+        when(settings.getString(eq("pathPatterns"))).thenReturn("x/y/z");
+        when(settings.getString(eq("filterType"))).thenReturn("INCLUDE");
+        when(settings.getString(eq("branchFilter"))).thenReturn("master release/(.*");
+        validator.validate(settings, settingsValidationErrors, repository);
+        verify(settingsValidationErrors).addFieldError(eq("branchFilter"), anyString());
+    }
+
+    @Test
+    public void ignoredBranchFilterShouldNotThrowError() {
+        when(settings.getString(eq("pathPatterns"))).thenReturn("x/y/z");
+        when(settings.getString(eq("filterType"))).thenReturn("ALL");
+        when(settings.getString(eq("branchFilter"))).thenReturn("release/(.*");
+        validator.validate(settings, settingsValidationErrors, repository);
+        verify(settingsValidationErrors, never()).addFieldError(anyString(), anyString());
+    }
 }
@@ -0,0 +1,58 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RefMatcherTest {
+    @Test
+    public void literalBranchShouldMatchExactly() {
+        RefMatcher refMatcher = new RefMatcher(asList("master", "develop"));
+
+        assertThat(refMatcher.matches("refs/heads/develop"), is(true));
+        assertThat(refMatcher.matches("refs/heads/master2"), is(false));
+        assertThat(refMatcher.matches("refs/tags/master"), is(false));
+    }
+
+    @Test
+    public void branchRegexShouldMatchBranches() {
+        RefMatcher refMatcher = new RefMatcher(asList("release/.*"));
+
+        assertThat(refMatcher.matches("refs/heads/release/1.0"), is(true));
+        assertThat(refMatcher.matches("refs/tags/release/1.0"), is(false));
+    }
+
+    @Test
+    public void fullRefRegexShouldMatchTags() {
+        RefMatcher refMatcher = new RefMatcher(asList("refs/tags/v.*"));
+
+        assertThat(refMatcher.matches("refs/tags/v1.0"), is(true));
+        assertThat(refMatcher.matches("refs/heads/v1.0"), is(false));
+    }
+
+    @Test
+    public void globShouldMatchWithinComponent() {
+        RefMatcher refMatcher = new RefMatcher(asList("glob:release/*"));
+
+        assertThat(refMatcher.matches("refs/heads/release/1.0"), is(true));
+        assertThat(refMatcher.matches("refs/heads/release/1.0/hotfix"), is(false));
+    }
+
+    @Test
+    public void globShouldMatchAcrossComponents() {
+        RefMatcher refMatcher = new RefMatcher(asList("glob:refs/tags/**"));
+
+        assertThat(refMatcher.matches("refs/tags/v1/rc1"), is(true));
+        assertThat(refMatcher.matches("refs/heads/v1"), is(false));
+    }
+
+    @Test
+    public void literalGlobShouldMatchExactly() {
+        RefMatcher refMatcher = new RefMatcher(asList("glob:v1.0"));
+
+        assertThat(refMatcher.matches("refs/heads/v1.0"), is(true));
+        assertThat(refMatcher.matches("refs/heads/v1x0"), is(false));
+    }
+}
@@ -5,14 +5,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static com.github.sgillespie.hook.SettingsFactoryServiceImpl.*;
 import static java.util.Arrays.asList;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class SettingsFactoryServiceImplTest {
@@ -25,6 +30,8 @@ public class SettingsFactoryServiceImplTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         settingsFactoryServiceImpl = new SettingsFactoryServiceImpl();
+
+        stubDefaults(settings);
     }
 
     @Test
@@ -51,6 +58,37 @@ public class SettingsFactoryServiceImplTest {
         assertThat(settingsFactoryServiceImpl.getPathPatterns(settings), equalTo((asList("pattern1", "pattern2"))));
     }
 
+    @Test
+    public void getPathPatternsWithLeadingWhitespaceShouldReturnAllPatterns() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("\n pattern1 pattern2");
+        assertThat(settingsFactoryServiceImpl.getPathPatterns(settings), equalTo((asList("pattern1", "pattern2"))));
+    }
+
+    @Test
+    public void getPathMatcherShouldMatchPatterns() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1 pattern2");
+        assertThat(settingsFactoryServiceImpl.getPathMatcher(settings).match("pattern2"),
+                equalTo(asList("pattern2")));
+    }
+
+    @Test
+    public void getPathMatcherWithSamePatternsShouldReturnCachedMatcher() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1 pattern2");
+        PathPatternMatcher matcher = settingsFactoryServiceImpl.getPathMatcher(settings);
+        assertThat(settingsFactoryServiceImpl.getPathMatcher(settings), sameInstance(matcher));
+    }
+
+    @Test
+    public void getPathMatcherWithChangedPatternsShouldReturnNewMatcher() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1");
+        PathPatternMatcher matcher = settingsFactoryServiceImpl.getPathMatcher(settings);
+
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1 pattern2");
+        assertThat(settingsFactoryServiceImpl.getPathMatcher(settings).getPatterns(),
+                equalTo(asList("pattern1", "pattern2")));
+        assertThat(settingsFactoryServiceImpl.getPathMatcher(settings) == matcher, is(false));
+    }
+
     @Test
     public void getFilterTypeWithValidTypeShouldReturnType() {
         when(settings.getString(eq(KEY_FILTER_TYPE), eq("ALL"))).thenReturn("ALL");
@@ -92,4 +130,145 @@ public class SettingsFactoryServiceImplTest {
         when(settings.getString(KEY_EXCLUDED_USERS)).thenReturn("pattern1 pattern2");
         assertThat(settingsFactoryServiceImpl.getExcludedUsers(settings), equalTo(asList("pattern1", "pattern2")));
     }
+
+    @Test
+    public void getExcludedGroupsWithMultipleGroupsShouldReturnAllGroups() {
+        when(settings.getString(KEY_EXCLUDED_GROUPS)).thenReturn("group1 group2");
+        assertThat(settingsFactoryServiceImpl.getExcludedGroups(settings), equalTo(asList("group1", "group2")));
+    }
+
+    @Test
+    public void getMaxViolationsEmptyShouldReturnZero() {
+        when(settings.getString(KEY_MAX_VIOLATIONS)).thenReturn(null);
+        assertThat(settingsFactoryServiceImpl.getMaxViolations(settings), is(0));
+    }
+
+    @Test
+    public void getMaxViolationsWithNumberShouldReturnNumber() {
+        when(settings.getString(KEY_MAX_VIOLATIONS)).thenReturn(" 5 ");
+        assertThat(settingsFactoryServiceImpl.getMaxViolations(settings), is(5));
+    }
+
+    @Test
+    public void getTimeoutEmptyShouldReturnZero() {
+        when(settings.getString(KEY_TIMEOUT)).thenReturn("");
+        assertThat(settingsFactoryServiceImpl.getTimeout(settings), is(0));
+    }
+
+    @Test
+    public void getTimeoutActionWithValidActionShouldReturnAction() {
+        when(settings.getString(eq(KEY_TIMEOUT_ACTION), eq("REJECT"))).thenReturn("ALLOW");
+        assertThat(settingsFactoryServiceImpl.getTimeoutAction(settings), is(TimeoutAction.ALLOW));
+    }
+
+    @Test
+    public void getFingerprintWithSameSettingsShouldBeEqual() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1 pattern2");
+        String fingerprint = settingsFactoryServiceImpl.getFingerprint(settings);
+        assertThat(settingsFactoryServiceImpl.getFingerprint(settings), equalTo(fingerprint));
+    }
+
+    @Test
+    public void getPathSyntaxShouldDefaultToRegex() {
+        assertThat(settingsFactoryServiceImpl.getPathSyntax(settings), is(PathSyntax.REGEX));
+    }
+
+    @Test
+    public void getPathMatcherWithGlobSyntaxShouldMatchGlobs() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("src/**/secrets/*.yml");
+        when(settings.getString(eq(KEY_PATH_SYNTAX), anyString())).thenReturn("GLOB");
+        assertThat(settingsFactoryServiceImpl.getPathMatcher(settings).match("src/main/secrets/db.yml"),
+                equalTo(asList("src/**/secrets/*.yml")));
+    }
+
+    @Test
+    public void getPathMatcherWithChangedSyntaxShouldReturnNewMatcher() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("x/*");
+        PathPatternMatcher matcher = settingsFactoryServiceImpl.getPathMatcher(settings);
+
+        when(settings.getString(eq(KEY_PATH_SYNTAX), anyString())).thenReturn("GLOB");
+        assertThat(settingsFactoryServiceImpl.getPathMatcher(settings) == matcher, is(false));
+    }
+
+    @Test
+    public void getValidationModeShouldDefaultToCommits() {
+        assertThat(settingsFactoryServiceImpl.getValidationMode(settings), is(ValidationMode.COMMITS));
+    }
+
+    @Test
+    public void getValidationModeShouldReturnValidationMode() {
+        when(settings.getString(eq(KEY_VALIDATION_MODE), anyString())).thenReturn("NET_DIFF");
+        assertThat(settingsFactoryServiceImpl.getValidationMode(settings), is(ValidationMode.NET_DIFF));
+    }
+
+    @Test
+    public void getFingerprintWithChangedSettingsShouldDiffer() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1");
+        String fingerprint = settingsFactoryServiceImpl.getFingerprint(settings);
+
+        when(settings.getString(KEY_EXCLUDED_USERS)).thenReturn("user1");
+        assertThat(settingsFactoryServiceImpl.getFingerprint(settings).equals(fingerprint), is(false));
+    }
+
+    @Test
+    public void getSettingsShouldCompileSettings() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1 pattern2");
+        when(settings.getString(eq(KEY_FILTER_TYPE), eq("ALL"))).thenReturn("INCLUDE");
+        when(settings.getString(KEY_FILTER_TYPE)).thenReturn("INCLUDE");
+        when(settings.getString(KEY_BRANCH_FILTERS)).thenReturn("master release/.*");
+        when(settings.getString(KEY_EXCLUDED_USERS)).thenReturn("user1 user2");
+
+        ProtectPathsSettings protectPathsSettings = settingsFactoryServiceImpl.getSettings(settings);
+        assertThat(protectPathsSettings.getPathMatcher().getPatterns(), equalTo(asList("pattern1", "pattern2")));
+        assertThat(protectPathsSettings.getFilterType(), is(FilterType.INCLUDE));
+        assertThat(protectPathsSettings.isIncludedRef("refs/heads/release/1.0"), is(true));
+        assertThat(protectPathsSettings.isIncludedRef("refs/heads/feature"), is(false));
+        assertThat(protectPathsSettings.isExcludedUser("user2"), is(true));
+        assertThat(protectPathsSettings.isExcludedUser("user3"), is(false));
+        assertThat(protectPathsSettings.getFingerprint(), equalTo(settingsFactoryServiceImpl.getFingerprint(settings)));
+    }
+
+    @Test
+    public void getSettingsWithSameSettingsShouldReturnSameInstance() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1 pattern2");
+        ProtectPathsSettings protectPathsSettings = settingsFactoryServiceImpl.getSettings(settings);
+
+        assertThat(settingsFactoryServiceImpl.getSettings(settings), sameInstance(protectPathsSettings));
+    }
+
+    @Test
+    public void getSettingsOfSeveralHooksShouldReturnSameInstances() {
+        Settings auditSettings = mock(Settings.class);
+        stubDefaults(auditSettings);
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1");
+        when(auditSettings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern2");
+
+        // Hooks of the same repository with different settings don't evict each other
+        ProtectPathsSettings protectPathsSettings = settingsFactoryServiceImpl.getSettings(settings);
+        ProtectPathsSettings auditPathsSettings = settingsFactoryServiceImpl.getSettings(auditSettings);
+        assertThat(settingsFactoryServiceImpl.getSettings(settings), sameInstance(protectPathsSettings));
+        assertThat(settingsFactoryServiceImpl.getSettings(auditSettings), sameInstance(auditPathsSettings));
+    }
+
+    @Test
+    public void getSettingsWithChangedSettingsShouldRecompile() {
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern1");
+        settingsFactoryServiceImpl.getSettings(settings);
+
+        when(settings.getString(KEY_PATH_PATTERNS)).thenReturn("pattern2");
+        assertThat(settingsFactoryServiceImpl.getSettings(settings).getPathMatcher().getPatterns(),
+                equalTo(asList("pattern2")));
+    }
+
+    /**
+     * Unset settings return their default value
+     */
+    private void stubDefaults(Settings settings) {
+        when(settings.getString(anyString(), anyString())).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return (String) invocation.getArguments()[1];
+            }
+        });
+    }
 }
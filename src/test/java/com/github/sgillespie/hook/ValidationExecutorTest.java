@@ -0,0 +1,125 @@
+package com.github.sgillespie.hook;
+
+import com.atlassian.stash.server.ApplicationPropertiesService;
+import com.atlassian.stash.user.EscalatedSecurityContext;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ValidationExecutorTest {
+    @Mock
+    private ApplicationPropertiesService applicationPropertiesService;
+    @Mock
+    private SecurityService securityService;
+    @Mock
+    private EscalatedSecurityContext escalatedSecurityContext;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        MockitoAnnotations.initMocks(this);
+
+        when(securityService.withPermission((Permission) anyObject(), anyString()))
+                .thenReturn(escalatedSecurityContext);
+        when(escalatedSecurityContext.call((Operation<Object, Throwable>) anyObject())).thenAnswer(
+                new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        return ((Operation<?, ?>) invocation.getArguments()[0]).perform();
+                    }
+                });
+    }
+
+    @Test
+    public void sequentialTasksShouldRunOnCallingThread() {
+        ValidationExecutor executor = createExecutor(1);
+
+        assertThat(executor.invokeAll(tasks(3)), equalTo(asList(
+                Thread.currentThread().getName(),
+                Thread.currentThread().getName(),
+                Thread.currentThread().getName())));
+        verify(securityService, never()).withPermission((Permission) anyObject(), anyString());
+    }
+
+    @Test
+    public void parallelTasksShouldReturnResultsInOrder() {
+        ValidationExecutor executor = createExecutor(4);
+
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int result = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(20 - result);
+                    return result;
+                }
+            });
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) expected.add(i);
+        assertThat(executor.invokeAll(tasks), equalTo(expected));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failedTaskShouldThrow() {
+        ValidationExecutor executor = createExecutor(4);
+
+        executor.invokeAll(asList(tasks(1).get(0), new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalArgumentException();
+            }
+        }));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void destroyedExecutorShouldRejectTasks() {
+        ValidationExecutor executor = createExecutor(4);
+        executor.destroy();
+
+        executor.invokeAll(tasks(2));
+    }
+
+    private ValidationExecutor createExecutor(int threads) {
+        when(applicationPropertiesService.getPluginProperty(eq(ValidationExecutor.PROPERTY_THREADS), anyInt()))
+                .thenReturn(threads);
+        return new ValidationExecutor(applicationPropertiesService, securityService);
+    }
+
+    private List<Callable<String>> tasks(int count) {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            });
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.sgillespie.hook;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ValidationProgressTest {
+    @Test
+    public void unlimitedProgressShouldNeverStop() {
+        ValidationProgress progress = new ValidationProgress(0);
+        progress.addViolation("a");
+        progress.addViolation("b");
+
+        assertThat(progress.isStopped(), is(false));
+        assertThat(progress.summarize(asList("error 1", "error 2")), equalTo(asList("error 1", "error 2")));
+    }
+
+    @Test
+    public void progressShouldStopAtMaxViolations() {
+        ValidationProgress progress = new ValidationProgress(2);
+        progress.addViolation("a");
+        progress.addViolation("a");
+        assertThat(progress.isStopped(), is(false));
+
+        progress.addViolation("b");
+        assertThat(progress.isStopped(), is(true));
+    }
+
+    @Test
+    public void summarizeShouldLimitErrors() {
+        ValidationProgress progress = new ValidationProgress(2);
+        assertThat(progress.summarize(asList("error 1", "error 2", "error 3", "error 4")),
+                equalTo(asList("error 1", "error 2", "...and at least 2 more")));
+    }
+
+    @Test
+    public void progressShouldStopWhenTimedOut() {
+        ValidationProgress progress = new ValidationProgress(0, 1, TimeUnit.NANOSECONDS);
+        assertThat(progress.isTimedOut(), is(true));
+        assertThat(progress.isStopped(), is(true));
+    }
+
+    @Test
+    public void progressShouldBeCompleteUntilMarked() {
+        ValidationProgress progress = new ValidationProgress(0, 1, TimeUnit.NANOSECONDS);
+        assertThat(progress.isIncomplete(), is(false));
+
+        progress.markIncomplete();
+        assertThat(progress.isIncomplete(), is(true));
+    }
+
+    @Test
+    public void progressWithoutTimeoutShouldNotTimeOut() {
+        ValidationProgress progress = new ValidationProgress(0, 0, TimeUnit.SECONDS);
+        assertThat(progress.isTimedOut(), is(false));
+    }
+}